@@ -0,0 +1,640 @@
+/*
+ * Copyright 2003, 2004  The Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ws.commons.serialize;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+
+/** A {@link ContentHandler}, which decouples the thread producing
+ * SAX events from the thread doing the actual serialization and I/O.
+ * The events are recorded into a bounded ring of reusable chunks.
+ * A dedicated consumer thread replays the chunks into the target
+ * handler, typically an instance of {@link XMLWriter}. The producer
+ * blocks only, if all chunks are in use.<br>
+ * Chunks are passed to the consumer, when they are full, or when
+ * {@link #endDocument()}, {@link #flush()}, or {@link #waitFor()}
+ * are invoked. Errors of the consumer are reported by the next
+ * call of these methods, or of an event method, which passes a chunk.
+ * After an error, all further events are discarded. Interrupting
+ * the consumer thread terminates it, and is reported as an
+ * {@link java.io.InterruptedIOException}.<br>
+ * The consumer thread is created by {@link #newThread(Runnable)},
+ * when the first chunk is passed. Subclasses may override this method,
+ * for example in order to use a virtual thread on Java 21 and later.
+ * Call {@link #close()} to terminate the thread.<br>
+ * The document locator is not passed to the target, because it
+ * cannot be used from another thread. Instances of this class are
+ * not thread safe: Events must be produced by a single thread at a
+ * time. Works with Java 1.2 and later.
+ */
+public class AsyncXMLWriter implements ContentHandler, LexicalHandler {
+	/** Default number of chunks.
+	 */
+	public static final int DEFAULT_NUM_CHUNKS = 4;
+	/** Default number of characters per chunk.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 16384;
+
+	private static final int START_DOCUMENT = 1;
+	private static final int END_DOCUMENT = 2;
+	private static final int START_PREFIX_MAPPING = 3;
+	private static final int END_PREFIX_MAPPING = 4;
+	private static final int START_ELEMENT = 5;
+	private static final int END_ELEMENT = 6;
+	private static final int CHARACTERS = 7;
+	private static final int IGNORABLE_WHITESPACE = 8;
+	private static final int PROCESSING_INSTRUCTION = 9;
+	private static final int SKIPPED_ENTITY = 10;
+	private static final int START_DTD = 11;
+	private static final int END_DTD = 12;
+	private static final int START_ENTITY = 13;
+	private static final int END_ENTITY = 14;
+	private static final int START_CDATA = 15;
+	private static final int END_CDATA = 16;
+	private static final int COMMENT = 17;
+	private static final int FLUSH = 18;
+
+	/** A chunk of recorded events. Each event is a sequence of
+	 * integers (the event type, followed by arguments like a length),
+	 * and consumes a number of strings and characters.
+	 */
+	private static class Chunk {
+		int[] ints;
+		int numInts;
+		String[] strings;
+		int numStrings;
+		char[] chars;
+		int numChars;
+		Chunk(int pSize) {
+			ints = new int[pSize / 8];
+			strings = new String[pSize / 4];
+			chars = new char[pSize];
+		}
+		boolean isEmpty() {
+			return numInts == 0;
+		}
+		void clear() {
+			for (int i = 0;  i < numStrings;  i++) {
+				strings[i] = null;
+			}
+			numInts = numStrings = numChars = 0;
+		}
+	}
+
+	private final ContentHandler target;
+	private final Object lock = new Object();
+	/** Chunks, which are waiting for the consumer, in the
+	 * order of their creation.
+	 */
+	private final Chunk[] filled;
+	private int filledHead, numFilled;
+	/** Chunks, which may be used by the producer.
+	 */
+	private final Chunk[] free;
+	private int numFree;
+	private final AttributesImpl attrs = new AttributesImpl();
+	private Chunk current;
+	private Thread thread;
+	private boolean consuming, closed;
+	/** Set, if the consumer thread has terminated unexpectedly.
+	 * The recorded events are discarded from then on.
+	 */
+	private boolean consumerGone;
+	private Throwable failure;
+
+	/** Creates a new instance with the given target, and
+	 * the default number and size of chunks.
+	 * @param pTarget The target handler, typically an
+	 * instance of {@link XMLWriter}.
+	 */
+	public AsyncXMLWriter(ContentHandler pTarget) {
+		this(pTarget, DEFAULT_NUM_CHUNKS, DEFAULT_CHUNK_SIZE);
+	}
+
+	/** Creates a new instance with the given target, and
+	 * the given number and size of chunks.
+	 * @param pTarget The target handler, typically an
+	 * instance of {@link XMLWriter}.
+	 * @param pNumChunks The number of chunks, at least 2.
+	 * @param pChunkSize The number of characters per chunk.
+	 */
+	public AsyncXMLWriter(ContentHandler pTarget, int pNumChunks, int pChunkSize) {
+		if (pTarget == null) {
+			throw new IllegalArgumentException("The target handler must not be null.");
+		}
+		if (pNumChunks < 2) {
+			throw new IllegalArgumentException("Invalid number of chunks: " + pNumChunks
+					+ " (Expected 2, or more)");
+		}
+		if (pChunkSize < 64) {
+			throw new IllegalArgumentException("Invalid chunk size: " + pChunkSize
+					+ " (Expected 64, or more)");
+		}
+		target = pTarget;
+		filled = new Chunk[pNumChunks];
+		free = new Chunk[pNumChunks];
+		for (int i = 0;  i < pNumChunks-1;  i++) {
+			free[numFree++] = new Chunk(pChunkSize);
+		}
+		current = new Chunk(pChunkSize);
+	}
+
+	/** Returns the target handler.
+	 * @return The target handler, typically an instance of
+	 * {@link XMLWriter}.
+	 */
+	public ContentHandler getTarget() {
+		return target;
+	}
+
+	/** Creates the consumer thread. The default implementation
+	 * creates a daemon thread.
+	 * @param pRunnable The consumers main loop.
+	 * @return A new thread, which hasn't yet been started.
+	 */
+	protected Thread newThread(Runnable pRunnable) {
+		Thread t = new Thread(pRunnable, "AsyncXMLWriter");
+		t.setDaemon(true);
+		return t;
+	}
+
+	private void checkFailure() throws SAXException {
+		Throwable t;
+		synchronized (lock) {
+			t = failure;
+		}
+		if (t != null) {
+			if (t instanceof SAXException) {
+				throw (SAXException) t;
+			}
+			if (t instanceof Exception) {
+				throw new SAXException((Exception) t);
+			}
+			throw new SAXException(t.getMessage());
+		}
+	}
+
+	/** Passes the current chunk to the consumer, and obtains a
+	 * new chunk, possibly blocking, until a chunk becomes free.
+	 */
+	private void handOver() throws SAXException {
+		if (current.isEmpty()) {
+			checkFailure();
+			return;
+		}
+		synchronized (lock) {
+			if (closed) {
+				throw new IllegalStateException("This writer has been closed.");
+			}
+			if (consumerGone) {
+				// Nobody is going to replay the events. The failure
+				// is reported below.
+				current.clear();
+			} else {
+				if (thread == null) {
+					thread = newThread(new Runnable(){
+						public void run() {
+							consume();
+						}
+					});
+					thread.start();
+				}
+				filled[(filledHead + numFilled++) % filled.length] = current;
+				current = null;
+				lock.notifyAll();
+				boolean interrupted = false;
+				while (numFree == 0) {
+					// Wait uninterruptibly, because we must not continue without a chunk.
+					// If the consumer terminates, then it returns all chunks.
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+				current = free[--numFree];
+				free[numFree] = null;
+			}
+		}
+		checkFailure();
+	}
+
+	/** The consumers main loop.
+	 */
+	private void consume() {
+		for (;;) {
+			Chunk chunk;
+			boolean discard;
+			synchronized (lock) {
+				try {
+					while (numFilled == 0  &&  !closed) {
+						lock.wait();
+					}
+				} catch (InterruptedException e) {
+					terminate(new InterruptedIOException("The consumer thread has been interrupted."));
+					return;
+				}
+				if (numFilled == 0) {
+					return;
+				}
+				chunk = filled[filledHead];
+				filled[filledHead] = null;
+				filledHead = (filledHead + 1) % filled.length;
+				--numFilled;
+				consuming = true;
+				discard = failure != null;
+			}
+			Throwable t = null;
+			if (!discard) {
+				try {
+					replay(chunk);
+				} catch (Throwable e) {
+					t = e;
+				}
+			}
+			chunk.clear();
+			synchronized (lock) {
+				if (t != null  &&  failure == null) {
+					failure = t;
+				}
+				free[numFree++] = chunk;
+				consuming = false;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/** Called by the consumer, if it terminates unexpectedly: Records
+	 * the failure, and returns the pending chunks to the producer,
+	 * so that it is never blocked. Must be called while holding the lock.
+	 */
+	private void terminate(Throwable pFailure) {
+		if (failure == null) {
+			failure = pFailure;
+		}
+		consumerGone = true;
+		while (numFilled > 0) {
+			Chunk chunk = filled[filledHead];
+			filled[filledHead] = null;
+			filledHead = (filledHead + 1) % filled.length;
+			--numFilled;
+			chunk.clear();
+			free[numFree++] = chunk;
+		}
+		lock.notifyAll();
+	}
+
+	private void replay(Chunk pChunk) throws SAXException {
+		final int[] ints = pChunk.ints;
+		final String[] s = pChunk.strings;
+		final char[] chars = pChunk.chars;
+		int ip = 0, sp = 0, cp = 0;
+		while (ip < pChunk.numInts) {
+			switch (ints[ip++]) {
+				case START_DOCUMENT:
+					target.startDocument();
+					break;
+				case END_DOCUMENT:
+					target.endDocument();
+					break;
+				case START_PREFIX_MAPPING:
+					target.startPrefixMapping(s[sp], s[sp+1]);
+					sp += 2;
+					break;
+				case END_PREFIX_MAPPING:
+					target.endPrefixMapping(s[sp++]);
+					break;
+				case START_ELEMENT: {
+					int numAttrs = ints[ip++];
+					String uri = s[sp++];
+					String localName = s[sp++];
+					String qName = s[sp++];
+					attrs.clear();
+					for (int i = 0;  i < numAttrs;  i++) {
+						attrs.addAttribute(s[sp], s[sp+1], s[sp+2], s[sp+3], s[sp+4]);
+						sp += 5;
+					}
+					target.startElement(uri, localName, qName, attrs);
+					break;
+				}
+				case END_ELEMENT:
+					target.endElement(s[sp], s[sp+1], s[sp+2]);
+					sp += 3;
+					break;
+				case CHARACTERS: {
+					int len = ints[ip++];
+					target.characters(chars, cp, len);
+					cp += len;
+					break;
+				}
+				case IGNORABLE_WHITESPACE: {
+					int len = ints[ip++];
+					target.ignorableWhitespace(chars, cp, len);
+					cp += len;
+					break;
+				}
+				case PROCESSING_INSTRUCTION:
+					target.processingInstruction(s[sp], s[sp+1]);
+					sp += 2;
+					break;
+				case SKIPPED_ENTITY:
+					target.skippedEntity(s[sp++]);
+					break;
+				case START_DTD:
+					if (target instanceof LexicalHandler) {
+						((LexicalHandler) target).startDTD(s[sp], s[sp+1], s[sp+2]);
+					}
+					sp += 3;
+					break;
+				case END_DTD:
+					if (target instanceof LexicalHandler) {
+						((LexicalHandler) target).endDTD();
+					}
+					break;
+				case START_ENTITY:
+					if (target instanceof LexicalHandler) {
+						((LexicalHandler) target).startEntity(s[sp]);
+					}
+					sp++;
+					break;
+				case END_ENTITY:
+					if (target instanceof LexicalHandler) {
+						((LexicalHandler) target).endEntity(s[sp]);
+					}
+					sp++;
+					break;
+				case START_CDATA:
+					if (target instanceof LexicalHandler) {
+						((LexicalHandler) target).startCDATA();
+					}
+					break;
+				case END_CDATA:
+					if (target instanceof LexicalHandler) {
+						((LexicalHandler) target).endCDATA();
+					}
+					break;
+				case COMMENT: {
+					int len = ints[ip++];
+					if (target instanceof LexicalHandler) {
+						((LexicalHandler) target).comment(chars, cp, len);
+					}
+					cp += len;
+					break;
+				}
+				case FLUSH:
+					if (target instanceof XMLWriter) {
+						try {
+							((XMLWriter) target).flush();
+						} catch (IOException e) {
+							throw new SAXException(e);
+						}
+					}
+					break;
+				default:
+					throw new IllegalStateException("Unknown event type: " + ints[ip-1]);
+			}
+		}
+	}
+
+	/** Ensures, that the current chunk has room for an event with
+	 * the given number of integers, and strings.
+	 */
+	private Chunk ensureCapacity(int pNumInts, int pNumStrings) throws SAXException {
+		Chunk c = current;
+		if (c.numInts + pNumInts > c.ints.length
+				||  c.numStrings + pNumStrings > c.strings.length) {
+			handOver();
+			c = current;
+			if (pNumInts > c.ints.length) {
+				c.ints = new int[pNumInts];
+			}
+			if (pNumStrings > c.strings.length) {
+				c.strings = new String[pNumStrings];
+			}
+		}
+		return c;
+	}
+
+	private void add(int pType) throws SAXException {
+		Chunk c = ensureCapacity(1, 0);
+		c.ints[c.numInts++] = pType;
+	}
+
+	private void add(int pType, String pString) throws SAXException {
+		Chunk c = ensureCapacity(1, 1);
+		c.ints[c.numInts++] = pType;
+		c.strings[c.numStrings++] = pString;
+	}
+
+	private void add(int pType, String pString1, String pString2) throws SAXException {
+		Chunk c = ensureCapacity(1, 2);
+		c.ints[c.numInts++] = pType;
+		c.strings[c.numStrings++] = pString1;
+		c.strings[c.numStrings++] = pString2;
+	}
+
+	private void add(int pType, String pString1, String pString2, String pString3)
+			throws SAXException {
+		Chunk c = ensureCapacity(1, 3);
+		c.ints[c.numInts++] = pType;
+		c.strings[c.numStrings++] = pString1;
+		c.strings[c.numStrings++] = pString2;
+		c.strings[c.numStrings++] = pString3;
+	}
+
+	/** Adds one, or more events with character data. Large arrays
+	 * are split into multiple events.
+	 */
+	private void add(int pType, char[] pChars, int pOffset, int pLen) throws SAXException {
+		int offset = pOffset;
+		int len = pLen;
+		do {
+			Chunk c = ensureCapacity(2, 0);
+			int free = c.chars.length - c.numChars;
+			if (free == 0  ||  (free < len  &&  pType == COMMENT)) {
+				handOver();
+				c = current;
+				free = c.chars.length;
+				if (pType == COMMENT  &&  free < len) {
+					// Comments must not be split, so make room.
+					c.chars = new char[len];
+					free = len;
+				}
+			}
+			int n = len < free ? len : free;
+			System.arraycopy(pChars, offset, c.chars, c.numChars, n);
+			c.numChars += n;
+			c.ints[c.numInts++] = pType;
+			c.ints[c.numInts++] = n;
+			offset += n;
+			len -= n;
+		} while (len > 0);
+	}
+
+	/** Passes all recorded events to the consumer, and requests,
+	 * that the target {@link XMLWriter} (if any) is flushed. Doesn't
+	 * wait for the consumer.
+	 * @throws SAXException The consumer reported an error.
+	 */
+	public void flush() throws SAXException {
+		add(FLUSH);
+		handOver();
+	}
+
+	/** Passes all recorded events to the consumer, and waits,
+	 * until the consumer has processed them.
+	 * @throws SAXException The consumer reported an error.
+	 */
+	public void waitFor() throws SAXException {
+		handOver();
+		synchronized (lock) {
+			try {
+				while ((numFilled > 0  ||  consuming)  &&  !consumerGone) {
+					lock.wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SAXException("Interrupted while waiting for the consumer.");
+			}
+		}
+		checkFailure();
+	}
+
+	/** Waits, until all recorded events are processed, and
+	 * terminates the consumer thread.
+	 * @throws SAXException The consumer reported an error.
+	 */
+	public void close() throws SAXException {
+		try {
+			waitFor();
+		} finally {
+			synchronized (lock) {
+				closed = true;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	public void setDocumentLocator(Locator pLocator) {
+		// Ignored, see the class documentation.
+	}
+
+	public void startDocument() throws SAXException {
+		add(START_DOCUMENT);
+	}
+
+	/** Records the end of the document, and passes the recorded
+	 * events to the consumer, without waiting for the latter.
+	 */
+	public void endDocument() throws SAXException {
+		add(END_DOCUMENT);
+		handOver();
+	}
+
+	public void startPrefixMapping(String pPrefix, String pURI) throws SAXException {
+		add(START_PREFIX_MAPPING, pPrefix, pURI);
+	}
+
+	public void endPrefixMapping(String pPrefix) throws SAXException {
+		add(END_PREFIX_MAPPING, pPrefix);
+	}
+
+	public void startElement(String pNamespaceURI, String pLocalName, String pQName,
+			Attributes pAttrs) throws SAXException {
+		int numAttrs = pAttrs == null ? 0 : pAttrs.getLength();
+		Chunk c = ensureCapacity(2, 3 + numAttrs * 5);
+		int[] ints = c.ints;
+		ints[c.numInts++] = START_ELEMENT;
+		ints[c.numInts++] = numAttrs;
+		String[] s = c.strings;
+		int sp = c.numStrings;
+		s[sp++] = pNamespaceURI;
+		s[sp++] = pLocalName;
+		s[sp++] = pQName;
+		for (int i = 0;  i < numAttrs;  i++) {
+			s[sp++] = pAttrs.getURI(i);
+			s[sp++] = pAttrs.getLocalName(i);
+			s[sp++] = pAttrs.getQName(i);
+			s[sp++] = pAttrs.getType(i);
+			s[sp++] = pAttrs.getValue(i);
+		}
+		c.numStrings = sp;
+	}
+
+	public void endElement(String pNamespaceURI, String pLocalName, String pQName)
+			throws SAXException {
+		add(END_ELEMENT, pNamespaceURI, pLocalName, pQName);
+	}
+
+	public void characters(char[] pChars, int pOffset, int pLen) throws SAXException {
+		if (pLen > 0) {
+			add(CHARACTERS, pChars, pOffset, pLen);
+		}
+	}
+
+	public void ignorableWhitespace(char[] pChars, int pOffset, int pLen) throws SAXException {
+		if (pLen > 0) {
+			add(IGNORABLE_WHITESPACE, pChars, pOffset, pLen);
+		}
+	}
+
+	public void processingInstruction(String pTarget, String pData) throws SAXException {
+		add(PROCESSING_INSTRUCTION, pTarget, pData);
+	}
+
+	public void skippedEntity(String pName) throws SAXException {
+		add(SKIPPED_ENTITY, pName);
+	}
+
+	public void startDTD(String pName, String pPublicId, String pSystemId) throws SAXException {
+		add(START_DTD, pName, pPublicId, pSystemId);
+	}
+
+	public void endDTD() throws SAXException {
+		add(END_DTD);
+	}
+
+	public void startEntity(String pName) throws SAXException {
+		add(START_ENTITY, pName);
+	}
+
+	public void endEntity(String pName) throws SAXException {
+		add(END_ENTITY, pName);
+	}
+
+	public void startCDATA() throws SAXException {
+		add(START_CDATA);
+	}
+
+	public void endCDATA() throws SAXException {
+		add(END_CDATA);
+	}
+
+	public void comment(char[] pChars, int pOffset, int pLen) throws SAXException {
+		add(COMMENT, pChars, pOffset, pLen);
+	}
+}
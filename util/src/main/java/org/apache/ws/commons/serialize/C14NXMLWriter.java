@@ -0,0 +1,612 @@
+/*
+ * Copyright 2003, 2004  The Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ws.commons.serialize;
+
+import java.io.IOException;
+
+import javax.xml.XMLConstants;
+
+import org.apache.ws.commons.util.NamespaceContextImpl;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+
+/** A subclass of {@link OrderedAttributeXMLWriter}, which writes
+ * Canonical XML 1.0, either inclusive
+ * (<a href="http://www.w3.org/TR/xml-c14n">http://www.w3.org/TR/xml-c14n</a>),
+ * or exclusive
+ * (<a href="http://www.w3.org/TR/xml-exc-c14n/">http://www.w3.org/TR/xml-exc-c14n/</a>),
+ * directly from a stream of SAX events, for example as generated by
+ * {@link DOMSerializer}. Namespace declarations, which are already in
+ * scope in the output, are suppressed.<br>
+ * Canonical XML is UTF-8 encoded, so the target {@link java.io.Writer}
+ * should be an {@link java.io.OutputStreamWriter} with encoding UTF-8.
+ * The serialized node set is always a complete subtree: Inherited
+ * attributes from the <code>xml</code> namespace aren't added to the
+ * subtrees root element. Comments are omitted, unless
+ * {@link #setWithComments(boolean)} is invoked.<br>
+ * If the streaming API is used, then the start tag is written
+ * when the elements contents begin: Attributes, and namespace
+ * declarations, which have been added by
+ * {@link #writeAttribute(String, String)}, are collected until then,
+ * so that they can be sorted. Pre-serialized fragments are not
+ * supported.
+ */
+public class C14NXMLWriter extends OrderedAttributeXMLWriter {
+	private static final char[] NO_CHARS = new char[0];
+	private static final String[] TEXT_REFERENCES = new String[128];
+	private static final String[] ATTRIBUTE_REFERENCES = new String[128];
+	static {
+		TEXT_REFERENCES['&'] = "&amp;";
+		TEXT_REFERENCES['<'] = "&lt;";
+		TEXT_REFERENCES['>'] = "&gt;";
+		TEXT_REFERENCES['\r'] = "&#xD;";
+		ATTRIBUTE_REFERENCES['&'] = "&amp;";
+		ATTRIBUTE_REFERENCES['<'] = "&lt;";
+		ATTRIBUTE_REFERENCES['"'] = "&quot;";
+		ATTRIBUTE_REFERENCES['\t'] = "&#x9;";
+		ATTRIBUTE_REFERENCES['\n'] = "&#xA;";
+		ATTRIBUTE_REFERENCES['\r'] = "&#xD;";
+	}
+
+	private boolean exclusive, withComments;
+	private String[] inclusivePrefixes;
+	/** Namespace declarations of the input.
+	 */
+	private final NamespaceContextImpl declared = new NamespaceContextImpl();
+	/** Namespace declarations, which have been written.
+	 */
+	private final NamespaceContextImpl rendered = new NamespaceContextImpl();
+	/** Namespace declarations of the next element.
+	 */
+	private String[] pendingPrefixes = new String[8], pendingURIs = new String[8];
+	private int numPendingPrefixes;
+	/** Namespace declarations, which are written on the current element.
+	 */
+	private String[] renderPrefixes = new String[8], renderURIs = new String[8];
+	private int numRenderPrefixes;
+	private final AttributesImpl attributes = new AttributesImpl();
+	/** The element, which has been started by {@link #writeStartElement(String)},
+	 * and its attributes, which are written when the start tag is complete.
+	 */
+	private String pendingQName;
+	private final AttributesImpl pendingAttributes = new AttributesImpl();
+	private boolean afterDocumentElement;
+	private char[] scratch;
+
+	/** Sets, whether exclusive canonicalization is being performed.
+	 * @param pExclusive True for exclusive canonicalization, false
+	 * (default) for inclusive canonicalization.
+	 */
+	public void setExclusive(boolean pExclusive) { exclusive = pExclusive; }
+
+	/** Returns, whether exclusive canonicalization is being performed.
+	 * @return True for exclusive canonicalization, false
+	 * (default) for inclusive canonicalization.
+	 */
+	public boolean isExclusive() { return exclusive; }
+
+	/** Sets the prefixes, which are handled like in inclusive
+	 * canonicalization, if {@link #isExclusive()} is true (the
+	 * <code>InclusiveNamespaces PrefixList</code>). The default
+	 * namespace is specified as <code>#default</code>.
+	 * @param pPrefixes The prefix list, or null.
+	 */
+	public void setInclusivePrefixes(String[] pPrefixes) { inclusivePrefixes = pPrefixes; }
+
+	/** Returns the prefixes, which are handled like in inclusive
+	 * canonicalization, if {@link #isExclusive()} is true.
+	 * @return The prefix list, or null.
+	 */
+	public String[] getInclusivePrefixes() { return inclusivePrefixes; }
+
+	/** Sets, whether comments are being written.
+	 * @param pWithComments True, if comments are written, false
+	 * (default) otherwise.
+	 */
+	public void setWithComments(boolean pWithComments) { withComments = pWithComments; }
+
+	/** Returns, whether comments are being written.
+	 * @return True, if comments are written, false
+	 * (default) otherwise.
+	 */
+	public boolean isWithComments() { return withComments; }
+
+	/** Returns false: Canonical XML has no XML declaration.
+	 */
+	public boolean isDeclarating() { return false; }
+
+	/** Returns false: Canonical XML isn't indented.
+	 */
+	public boolean isIndenting() { return false; }
+
+	/** Returns true: Canonical XML is UTF-8 encoded, and contains no
+	 * character references, except for some whitespace characters.
+	 */
+	public boolean canEncode(char c) { return true; }
+
+	public void startDocument() throws SAXException {
+		clearNamespaces();
+		super.startDocument();
+	}
+
+	public void reset() {
+		super.reset();
+		clearNamespaces();
+	}
+
+	private void clearNamespaces() {
+		declared.reset();
+		rendered.reset();
+		clearPendingPrefixes();
+		numRenderPrefixes = 0;
+		afterDocumentElement = false;
+		pendingQName = null;
+		pendingAttributes.clear();
+	}
+
+	public void startPrefixMapping(String pPrefix, String pURI) throws SAXException {
+		writePendingStartElement();
+		if (XMLConstants.XML_NS_PREFIX.equals(pPrefix)) {
+			return;
+		}
+		for (int i = 0;  i < numPendingPrefixes;  i++) {
+			if (pendingPrefixes[i].equals(pPrefix)) {
+				pendingURIs[i] = pURI;
+				return;
+			}
+		}
+		if (numPendingPrefixes == pendingPrefixes.length) {
+			String[] prefixes = new String[numPendingPrefixes * 2];
+			System.arraycopy(pendingPrefixes, 0, prefixes, 0, numPendingPrefixes);
+			pendingPrefixes = prefixes;
+			String[] uris = new String[numPendingPrefixes * 2];
+			System.arraycopy(pendingURIs, 0, uris, 0, numPendingPrefixes);
+			pendingURIs = uris;
+		}
+		pendingPrefixes[numPendingPrefixes] = pPrefix;
+		pendingURIs[numPendingPrefixes++] = pURI;
+	}
+
+	public void endPrefixMapping(String pPrefix) throws SAXException {
+		// Nothing to do, the declarations are removed in endElement.
+	}
+
+	private void clearPendingPrefixes() {
+		for (int i = 0;  i < numPendingPrefixes;  i++) {
+			pendingPrefixes[i] = null;
+			pendingURIs[i] = null;
+		}
+		numPendingPrefixes = 0;
+	}
+
+	public void startElement(String pNamespaceURI, String pLocalName, String pQName,
+			Attributes pAttrs) throws SAXException {
+		writePendingStartElement();
+		Attributes attrs;
+		if (pAttrs == null) {
+			// An instance is required for writing the namespace declarations.
+			attributes.clear();
+			attrs = attributes;
+		} else {
+			attrs = removeNamespaceDeclarations(pAttrs);
+		}
+		declared.pushScope();
+		for (int i = 0;  i < numPendingPrefixes;  i++) {
+			declared.startPrefixMapping(pendingPrefixes[i], pendingURIs[i]);
+		}
+		numRenderPrefixes = 0;
+		if (exclusive) {
+			addUtilizedPrefix(pQName);
+			for (int i = 0;  i < attrs.getLength();  i++) {
+				String qName = attrs.getQName(i);
+				if (qName.indexOf(':') != -1) {
+					addUtilizedPrefix(qName);
+				}
+			}
+			if (inclusivePrefixes != null) {
+				for (int i = 0;  i < inclusivePrefixes.length;  i++) {
+					String prefix = inclusivePrefixes[i];
+					if ("#default".equals(prefix)) {
+						addRenderPrefix("", declared.getNamespaceURI(""));
+					} else if (declared.isPrefixDeclared(prefix)) {
+						addRenderPrefix(prefix, declared.getNamespaceURI(prefix));
+					}
+				}
+			}
+		} else {
+			for (int i = 0;  i < numPendingPrefixes;  i++) {
+				addRenderPrefix(pendingPrefixes[i], pendingURIs[i]);
+			}
+		}
+		clearPendingPrefixes();
+		rendered.pushScope();
+		for (int i = 0;  i < numRenderPrefixes;  i++) {
+			rendered.startPrefixMapping(renderPrefixes[i], renderURIs[i]);
+		}
+		super.startElement(pNamespaceURI, pLocalName, pQName, attrs);
+	}
+
+	/** Starts a new element. The start tag is written, when the
+	 * elements contents begin, so that the attributes, which are added
+	 * by {@link #writeAttribute(String, String)}, can be sorted.
+	 */
+	public void writeStartElement(String pQName) throws SAXException {
+		writePendingStartElement();
+		pendingQName = pQName;
+	}
+
+	/** Adds an attribute, or a namespace declaration, to the element,
+	 * which has been started by {@link #writeStartElement(String)}.
+	 */
+	public void writeAttribute(String pQName, String pValue) throws SAXException {
+		if (pendingQName == null) {
+			throw new IllegalStateException("An attribute may only be written immediately after a start tag.");
+		}
+		pendingAttributes.addAttribute(null, null, pQName, "CDATA", pValue);
+	}
+
+	/** Writes the element, which has been started by
+	 * {@link #writeStartElement(String)}, if any: The collected
+	 * namespace declarations are treated like calls of
+	 * {@link #startPrefixMapping(String, String)}, and the namespace
+	 * URI's of the attributes are resolved, before the attributes
+	 * are passed to {@link #startElement(String, String, String, Attributes)}.
+	 */
+	private void writePendingStartElement() throws SAXException {
+		if (pendingQName == null) {
+			return;
+		}
+		String qName = pendingQName;
+		pendingQName = null;
+		AttributesImpl attrs = pendingAttributes;
+		int len = attrs.getLength();
+		for (int i = 0;  i < len;  i++) {
+			String name = attrs.getQName(i);
+			if (name.equals(XMLConstants.XMLNS_ATTRIBUTE)) {
+				startPrefixMapping("", attrs.getValue(i));
+			} else if (name.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":")) {
+				startPrefixMapping(name.substring(XMLConstants.XMLNS_ATTRIBUTE.length()+1), attrs.getValue(i));
+			}
+		}
+		attributes.clear();
+		for (int i = 0;  i < len;  i++) {
+			String name = attrs.getQName(i);
+			if (name.equals(XMLConstants.XMLNS_ATTRIBUTE)
+					||  name.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":")) {
+				continue;
+			}
+			int offset = name.indexOf(':');
+			if (offset == -1) {
+				attributes.addAttribute("", name, name, "CDATA", attrs.getValue(i));
+			} else {
+				String prefix = name.substring(0, offset);
+				String uri = getPendingNamespaceURI(prefix);
+				if (uri == null  ||  uri.length() == 0) {
+					throw new SAXException("Undeclared namespace prefix: " + prefix);
+				}
+				attributes.addAttribute(uri, name.substring(offset+1), name, "CDATA", attrs.getValue(i));
+			}
+		}
+		attrs.clear();
+		startElement(null, null, qName, attributes);
+	}
+
+	/** Returns the namespace URI of the given prefix, including the
+	 * declarations of the next element.
+	 */
+	private String getPendingNamespaceURI(String pPrefix) {
+		if (XMLConstants.XML_NS_PREFIX.equals(pPrefix)) {
+			return XMLConstants.XML_NS_URI;
+		}
+		for (int i = 0;  i < numPendingPrefixes;  i++) {
+			if (pendingPrefixes[i].equals(pPrefix)) {
+				return pendingURIs[i];
+			}
+		}
+		return declared.getNamespaceURI(pPrefix);
+	}
+
+	/** Not supported: A pre-serialized fragment isn't canonical.
+	 * @throws UnsupportedOperationException Always.
+	 */
+	public void writeFragment(PreSerializedFragment pFragment) throws SAXException {
+		throw new UnsupportedOperationException("Pre-serialized fragments cannot be canonicalized.");
+	}
+
+	public void writeEndElement() throws SAXException {
+		writePendingStartElement();
+		super.writeEndElement();
+	}
+
+	public void writeInt(int pValue) throws SAXException {
+		writePendingStartElement();
+		super.writeInt(pValue);
+	}
+
+	public void writeLong(long pValue) throws SAXException {
+		writePendingStartElement();
+		super.writeLong(pValue);
+	}
+
+	public void writeBoolean(boolean pValue) throws SAXException {
+		writePendingStartElement();
+		super.writeBoolean(pValue);
+	}
+
+	public void writeDouble(double pValue) throws SAXException {
+		writePendingStartElement();
+		super.writeDouble(pValue);
+	}
+
+	public void writeDateTime(long pMillis, int pOffsetMinutes) throws SAXException {
+		writePendingStartElement();
+		super.writeDateTime(pMillis, pOffsetMinutes);
+	}
+
+	public void endDocument() throws SAXException {
+		writePendingStartElement();
+		super.endDocument();
+	}
+
+	/** Removes attributes, which are namespace declarations, and
+	 * treats them like calls of {@link #startPrefixMapping(String, String)}.
+	 */
+	private Attributes removeNamespaceDeclarations(Attributes pAttrs) throws SAXException {
+		int len = pAttrs.getLength();
+		boolean found = false;
+		for (int i = 0;  i < len;  i++) {
+			if (pAttrs.getQName(i).startsWith(XMLConstants.XMLNS_ATTRIBUTE)) {
+				found = true;
+				break;
+			}
+		}
+		if (!found) {
+			return pAttrs;
+		}
+		attributes.clear();
+		for (int i = 0;  i < len;  i++) {
+			String qName = pAttrs.getQName(i);
+			if (qName.equals(XMLConstants.XMLNS_ATTRIBUTE)) {
+				startPrefixMapping("", pAttrs.getValue(i));
+			} else if (qName.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":")) {
+				startPrefixMapping(qName.substring(XMLConstants.XMLNS_ATTRIBUTE.length()+1), pAttrs.getValue(i));
+			} else {
+				attributes.addAttribute(pAttrs.getURI(i), pAttrs.getLocalName(i), qName,
+										pAttrs.getType(i), pAttrs.getValue(i));
+			}
+		}
+		return attributes;
+	}
+
+	/** Called for the element name, and attribute names, if exclusive
+	 * canonicalization is performed: Renders the namespace declaration
+	 * of the names prefix, if required.
+	 */
+	private void addUtilizedPrefix(String pQName) {
+		int offset = pQName.indexOf(':');
+		String prefix = offset == -1 ? "" : pQName.substring(0, offset);
+		if (!XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+			addRenderPrefix(prefix, declared.getNamespaceURI(prefix));
+		}
+	}
+
+	/** Adds the given declaration to the list of rendered declarations,
+	 * unless it is already in scope, or in the list. The list is sorted
+	 * by prefix.
+	 */
+	private void addRenderPrefix(String pPrefix, String pURI) {
+		if (pURI.equals(rendered.getNamespaceURI(pPrefix))) {
+			return;
+		}
+		int i = numRenderPrefixes;
+		while (i > 0) {
+			int result = renderPrefixes[i-1].compareTo(pPrefix);
+			if (result == 0) {
+				return;
+			}
+			if (result < 0) {
+				break;
+			}
+			--i;
+		}
+		if (numRenderPrefixes == renderPrefixes.length) {
+			String[] prefixes = new String[numRenderPrefixes * 2];
+			System.arraycopy(renderPrefixes, 0, prefixes, 0, numRenderPrefixes);
+			renderPrefixes = prefixes;
+			String[] uris = new String[numRenderPrefixes * 2];
+			System.arraycopy(renderURIs, 0, uris, 0, numRenderPrefixes);
+			renderURIs = uris;
+		}
+		int num = numRenderPrefixes - i;
+		if (num > 0) {
+			System.arraycopy(renderPrefixes, i, renderPrefixes, i+1, num);
+			System.arraycopy(renderURIs, i, renderURIs, i+1, num);
+		}
+		renderPrefixes[i] = pPrefix;
+		renderURIs[i] = pURI;
+		numRenderPrefixes++;
+	}
+
+	/** Writes the namespace declarations, followed by the attributes
+	 * in the order of {@link OrderedAttributeXMLWriter}.
+	 */
+	protected void writeAttributes(Attributes pAttrs) throws IOException {
+		writeNamespaceDeclarations();
+		super.writeAttributes(pAttrs);
+	}
+
+	private void writeNamespaceDeclarations() throws IOException {
+		for (int i = 0;  i < numRenderPrefixes;  i++) {
+			write(' ');
+			write(XMLConstants.XMLNS_ATTRIBUTE);
+			String prefix = renderPrefixes[i];
+			if (prefix.length() > 0) {
+				write(':');
+				write(prefix);
+			}
+			write("=\"");
+			writeAttributeValue(renderURIs[i]);
+			write('"');
+			renderPrefixes[i] = null;
+			renderURIs[i] = null;
+		}
+		numRenderPrefixes = 0;
+	}
+
+	public void endElement(String pNamespaceURI, String pLocalName, String pQName)
+			throws SAXException {
+		writePendingStartElement();
+		// Empty elements are written as a pair of start and end tags.
+		super.characters(NO_CHARS, 0, 0);
+		super.endElement(pNamespaceURI, pLocalName, pQName);
+		rendered.popScope();
+		declared.popScope();
+		if (getDepth() == 0) {
+			afterDocumentElement = true;
+		}
+	}
+
+	public void characters(char[] pChars, int pOffset, int pLen) throws SAXException {
+		writePendingStartElement();
+		// Text outside of the document element is dropped.
+		if (getDepth() > 0) {
+			super.characters(pChars, pOffset, pLen);
+		}
+	}
+
+	/** Does nothing: CDATA sections are replaced with their contents.
+	 */
+	public void startCDATA() throws SAXException {
+	}
+
+	/** Does nothing: CDATA sections are replaced with their contents.
+	 */
+	public void endCDATA() throws SAXException {
+	}
+
+	public void comment(char[] pChars, int pOffset, int pLen) throws SAXException {
+		writePendingStartElement();
+		if (!withComments  ||  !hasTarget()) {
+			return;
+		}
+		try {
+			startNode();
+			write("<!--");
+			write(pChars, pOffset, pLen);
+			write("-->");
+			endNode();
+		} catch (IOException e) {
+			throw new SAXException(e);
+		}
+	}
+
+	public void processingInstruction(String pTarget, String pData) throws SAXException {
+		writePendingStartElement();
+		if (!hasTarget()) {
+			return;
+		}
+		try {
+			startNode();
+			write("<?");
+			write(pTarget);
+			if (pData != null  &&  pData.length() > 0) {
+				write(' ');
+				write(pData);
+			}
+			write("?>");
+			endNode();
+		} catch (IOException e) {
+			throw new SAXException(e);
+		}
+	}
+
+	/** Called before writing a comment, or processing instruction.
+	 * Terminates the current start tag, if any, or writes a line
+	 * feed, if the node follows the document element.
+	 */
+	private void startNode() throws SAXException, IOException {
+		if (getDepth() > 0) {
+			super.characters(NO_CHARS, 0, 0);
+		} else if (afterDocumentElement) {
+			write('\n');
+		}
+	}
+
+	/** Called after writing a comment, or processing instruction.
+	 * Writes a line feed, if the node precedes the document element.
+	 */
+	private void endNode() throws IOException {
+		if (getDepth() == 0  &&  !afterDocumentElement) {
+			write('\n');
+		}
+	}
+
+	protected void writeText(char[] pChars, int pOffset, int pLen) throws IOException {
+		writeEscaped(pChars, pOffset, pLen, TEXT_REFERENCES);
+	}
+
+	protected void writeText(String pValue) throws IOException {
+		writeEscaped(pValue, TEXT_REFERENCES);
+	}
+
+	protected void writeAttributeValue(char[] pChars, int pOffset, int pLen) throws IOException {
+		writeEscaped(pChars, pOffset, pLen, ATTRIBUTE_REFERENCES);
+	}
+
+	protected void writeAttributeValue(String pValue) throws IOException {
+		writeEscaped(pValue, ATTRIBUTE_REFERENCES);
+	}
+
+	private void writeEscaped(String pValue, String[] pReferences) throws IOException {
+		int len = pValue.length();
+		if (scratch == null) {
+			scratch = new char[512];
+		}
+		for (int offset = 0;  offset < len;  ) {
+			int n = len - offset;
+			if (n > scratch.length) {
+				n = scratch.length;
+			}
+			pValue.getChars(offset, offset+n, scratch, 0);
+			writeEscaped(scratch, 0, n, pReferences);
+			offset += n;
+		}
+	}
+
+	private void writeEscaped(char[] pChars, int pOffset, int pLen, String[] pReferences)
+			throws IOException {
+		int end = pOffset + pLen;
+		int runStart = pOffset;
+		for (int i = pOffset;  i < end;  i++) {
+			char c = pChars[i];
+			if (c < 128) {
+				String ref = pReferences[c];
+				if (ref != null) {
+					if (i > runStart) {
+						write(pChars, runStart, i-runStart);
+					}
+					write(ref);
+					runStart = i+1;
+				}
+			}
+		}
+		if (end > runStart) {
+			write(pChars, runStart, end-runStart);
+		}
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2003, 2004  The Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ws.commons.serialize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.xml.sax.SAXException;
+
+
+/** A subclass of {@link Utf8XMLWriter}, which is writing to a
+ * {@link WritableByteChannel}, for example a
+ * {@link java.nio.channels.SocketChannel}, or a
+ * {@link java.nio.channels.FileChannel}. Requires Java 1.4.<br>
+ * By default, the writers byte buffer is passed to the channel
+ * without any copying. Optionally, a {@link ByteBuffer} (typically
+ * a direct buffer) may be configured: The output is copied into that
+ * buffer, and drained to the channel, when it is full, when the
+ * writer is flushed, or by {@link #endDocument()}. Byte arrays, which
+ * are at least as large as the configured buffer, are written together
+ * with the buffers contents. If the channel is a
+ * {@link GatheringByteChannel}, this is done with a single gathering
+ * write.<br>
+ * The channel must be in blocking mode.
+ */
+public class ChannelXMLWriter extends Utf8XMLWriter {
+	private WritableByteChannel channel;
+	private ByteBuffer byteBuffer;
+	private ByteBuffer wrapper;
+	private final ByteBuffer[] buffers = new ByteBuffer[2];
+
+	/** Sets the target channel.
+	 * @param pChannel The target channel.
+	 */
+	public void setChannel(WritableByteChannel pChannel) {
+		channel = pChannel;
+	}
+
+	/** Returns the target channel.
+	 * @return The target channel.
+	 */
+	public WritableByteChannel getChannel() {
+		return channel;
+	}
+
+	/** Sets the buffer, which is used for collecting output before
+	 * writing it to the channel. By default, there is no such buffer,
+	 * and the writers internal byte buffer is written directly.
+	 * @param pBuffer The buffer being used, typically a direct buffer,
+	 * or null. The buffers contents are discarded.
+	 * @throws IllegalStateException The current buffer contains data,
+	 * which hasn't yet been written to the channel.
+	 */
+	public void setByteBuffer(ByteBuffer pBuffer) {
+		if (byteBuffer != null  &&  byteBuffer.position() > 0) {
+			throw new IllegalStateException("The byte buffer cannot be changed while it contains data.");
+		}
+		byteBuffer = pBuffer;
+		if (pBuffer != null) {
+			pBuffer.clear();
+		}
+	}
+
+	/** Returns the buffer, which is used for collecting output before
+	 * writing it to the channel.
+	 * @return The buffer being used, or null.
+	 */
+	public ByteBuffer getByteBuffer() {
+		return byteBuffer;
+	}
+
+	/** Not supported: The target must be a {@link WritableByteChannel}.
+	 * @see #setChannel(WritableByteChannel)
+	 */
+	public void setOutputStream(OutputStream pStream) {
+		throw new UnsupportedOperationException("A " + getClass().getName()
+				+ " requires a WritableByteChannel as target.");
+	}
+
+	public void reset() {
+		super.reset();
+		channel = null;
+		if (byteBuffer != null) {
+			byteBuffer.clear();
+		}
+	}
+
+	protected boolean hasTarget() {
+		return channel != null;
+	}
+
+	/** Terminates the document, and drains the configured byte buffer,
+	 * if any, to the channel.
+	 */
+	public void endDocument() throws SAXException {
+		super.endDocument();
+		if (byteBuffer != null) {
+			try {
+				drainByteBuffer();
+			} catch (IOException e) {
+				throw new SAXException("Failed to write to the channel: " + e.getMessage(), e);
+			}
+		}
+	}
+
+	/** Drains the configured byte buffer, if any, to the channel.
+	 */
+	protected void flushTarget() throws IOException {
+		if (byteBuffer != null) {
+			drainByteBuffer();
+		}
+	}
+
+	protected int getBufferedLength() {
+		return super.getBufferedLength() + (byteBuffer == null ? 0 : byteBuffer.position());
+	}
+
+	/** Copies the given bytes into the configured byte buffer, if any,
+	 * which is drained, whenever it is full. Without a configured
+	 * buffer, or for arrays, which are at least as large as the
+	 * buffer, the bytes are written to the channel directly.
+	 */
+	protected void writeBytes(byte[] pBytes, int pOffset, int pLen) throws IOException {
+		if (channel == null) {
+			if (byteBuffer != null) {
+				byteBuffer.clear();
+			}
+			return;
+		}
+		if (byteBuffer == null  ||  pLen >= byteBuffer.capacity()) {
+			writeChannel(pBytes, pOffset, pLen);
+			return;
+		}
+		int free = byteBuffer.remaining();
+		if (pLen <= free) {
+			byteBuffer.put(pBytes, pOffset, pLen);
+		} else {
+			byteBuffer.put(pBytes, pOffset, free);
+			drainByteBuffer();
+			byteBuffer.put(pBytes, pOffset + free, pLen - free);
+		}
+	}
+
+	private void drain(ByteBuffer pBuffer) throws IOException {
+		while (pBuffer.hasRemaining()) {
+			channel.write(pBuffer);
+		}
+	}
+
+	/** Writes the contents of the configured byte buffer to the channel.
+	 */
+	private void drainByteBuffer() throws IOException {
+		if (channel == null  ||  byteBuffer.position() == 0) {
+			return;
+		}
+		byteBuffer.flip();
+		try {
+			int len = byteBuffer.remaining();
+			targetWritten(len);
+			SerializationListener listener = getListener();
+			if (listener == null) {
+				drain(byteBuffer);
+			} else {
+				long time = System.nanoTime();
+				drain(byteBuffer);
+				listener.targetWritten(len, System.nanoTime() - time);
+			}
+		} finally {
+			byteBuffer.clear();
+		}
+	}
+
+	/** Writes the given bytes, and the contents of the byte buffer,
+	 * if any, to the channel.
+	 */
+	private void writeChannel(byte[] pBytes, int pOffset, int pLen) throws IOException {
+		if (wrapper == null  ||  wrapper.array() != pBytes) {
+			wrapper = ByteBuffer.wrap(pBytes);
+		}
+		wrapper.clear();
+		wrapper.position(pOffset);
+		wrapper.limit(pOffset+pLen);
+		int len = pLen + (byteBuffer == null ? 0 : byteBuffer.position());
+		targetWritten(len);
+		SerializationListener listener = getListener();
+		long time = listener == null ? 0 : System.nanoTime();
+		if (byteBuffer == null  ||  byteBuffer.position() == 0) {
+			drain(wrapper);
+		} else {
+			byteBuffer.flip();
+			try {
+				if (channel instanceof GatheringByteChannel) {
+					buffers[0] = byteBuffer;
+					buffers[1] = wrapper;
+					GatheringByteChannel gbc = (GatheringByteChannel) channel;
+					while (wrapper.hasRemaining()) {
+						gbc.write(buffers);
+					}
+				} else {
+					drain(byteBuffer);
+					drain(wrapper);
+				}
+			} finally {
+				buffers[0] = null;
+				buffers[1] = null;
+				byteBuffer.clear();
+			}
+		}
+		if (listener != null) {
+			listener.targetWritten(len, System.nanoTime() - time);
+		}
+	}
+}
@@ -18,6 +18,8 @@ package org.apache.ws.commons.serialize;
 
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.xml.sax.SAXException;
 
@@ -26,21 +28,122 @@ import org.xml.sax.SAXException;
  * using the{@link java.nio.charset.Charset} from Java 1.4.
  */
 public class CharSetXMLWriter extends XMLWriterImpl {
-	private CharsetEncoder charsetEncoder;
-	
+	/** Caches the results of {@link CharsetEncoder#canEncode(char)}
+	 * for a single charset. Instances are shared by all writers,
+	 * which are using the same charset.
+	 */
+	private static class Encodability {
+		private static final int PAGE_BITS = 8;
+		private static final int PAGE_SIZE = 1 << PAGE_BITS;
+		/** A page of 256 bits, one for each character. Immutable,
+		 * hence may be read without synchronization.
+		 */
+		private static class Page {
+			final long[] bits;
+			Page(long[] pBits) { bits = pBits; }
+		}
+		private final Charset charSet;
+		/** Characters below this limit can be encoded, other characters
+		 * can't. Ignored, if {@link #pages} is non-null.
+		 */
+		private final int limit;
+		private final Page[] pages;
+		private CharsetEncoder encoder;
+
+		Encodability(Charset pCharSet) {
+			charSet = pCharSet;
+			String name = pCharSet.name();
+			if ("US-ASCII".equals(name)) {
+				limit = 0x80;
+				pages = null;
+			} else if ("ISO-8859-1".equals(name)) {
+				limit = 0x100;
+				pages = null;
+			} else if (name.startsWith("UTF-")) {
+				limit = 0x10000;
+				pages = null;
+			} else {
+				limit = 0;
+				pages = new Page[0x10000 >> PAGE_BITS];
+			}
+		}
+
+		boolean canEncode(char c) {
+			if (pages == null) {
+				return c < limit  &&  (c < '\ud800'  ||  c > '\udfff');
+			}
+			Page page = pages[c >> PAGE_BITS];
+			if (page == null) {
+				page = getPage(c >> PAGE_BITS);
+			}
+			return (page.bits[(c & (PAGE_SIZE-1)) >> 6] & (1L << (c & 0x3f))) != 0;
+		}
+
+		private synchronized Page getPage(int pPageNum) {
+			Page page = pages[pPageNum];
+			if (page == null) {
+				if (encoder == null) {
+					encoder = charSet.newEncoder();
+				}
+				long[] bits = new long[PAGE_SIZE >> 6];
+				int first = pPageNum << PAGE_BITS;
+				for (int i = 0;  i < PAGE_SIZE;  i++) {
+					if (encoder.canEncode((char) (first + i))) {
+						bits[i >> 6] |= 1L << (i & 0x3f);
+					}
+				}
+				page = new Page(bits);
+				pages[pPageNum] = page;
+			}
+			return page;
+		}
+	}
+
+	/** Marks an encoding, which has no encoder.
+	 */
+	private static final Object UNSUPPORTED = new Object();
+	/** Maps encoding names, as passed to {@link #setEncoding(String)},
+	 * and canonical charset names to instances of {@link Encodability},
+	 * or {@link #UNSUPPORTED}.
+	 */
+	private static final Map encodabilities = new HashMap();
+
+	private static Encodability getEncodability(String pEncoding) {
+		synchronized (encodabilities) {
+			Object result = encodabilities.get(pEncoding);
+			if (result == null) {
+				Charset charSet = Charset.forName(pEncoding);
+				if (charSet.canEncode()) {
+					result = encodabilities.get(charSet.name());
+					if (result == null) {
+						result = new Encodability(charSet);
+						encodabilities.put(charSet.name(), result);
+					}
+				} else {
+					result = UNSUPPORTED;
+				}
+				encodabilities.put(pEncoding, result);
+			}
+			return result == UNSUPPORTED ? null : (Encodability) result;
+		}
+	}
+
+	private String resolvedEncoding;
+	private Encodability encodability;
+
 	public void startDocument() throws SAXException {
 	    String enc = getEncoding();
         if (enc == null) {
             enc = "UTF-8";
         }
-		Charset charSet = Charset.forName(enc);
-		if (charSet.canEncode()) {
-			charsetEncoder = charSet.newEncoder();
+		if (enc != resolvedEncoding  &&  !enc.equals(resolvedEncoding)) {
+			encodability = getEncodability(enc);
+			resolvedEncoding = enc;
 		}
         super.startDocument();
 	}
-	
+
 	public boolean canEncode(char c) {
-		return (charsetEncoder == null) ? super.canEncode(c) : charsetEncoder.canEncode(c);
+		return (encodability == null) ? super.canEncode(c) : encodability.canEncode(c);
 	}
 }
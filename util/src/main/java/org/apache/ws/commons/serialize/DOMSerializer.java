@@ -30,7 +30,24 @@ public class DOMSerializer {
 	private boolean namespaceDeclarationAttribute;
 	private boolean parentsNamespaceDeclarationDisabled;
 	private boolean startingDocument = true;
+	private SerializationListener listener;
 	
+	/** Sets a listener, which is notified about the time spent in
+	 * {@link #serialize(Node, ContentHandler)}. Requires Java 5.
+	 * @param pListener The listener, or null (default).
+	 */
+	public void setListener(SerializationListener pListener) {
+		listener = pListener;
+	}
+
+	/** Returns the listener, which is notified about the time spent in
+	 * {@link #serialize(Node, ContentHandler)}.
+	 * @return The listener, or null (default).
+	 */
+	public SerializationListener getListener() {
+		return listener;
+	}
+
 	/** Sets whether XML namespace declarations are being serialized as
 	 * attributes or as SAX events (default).
 	 * @param pXmlDeclarationAttribute True, if a namespace declaration
@@ -220,6 +237,17 @@ public class DOMSerializer {
 	 */
 	public void serialize(Node pNode, ContentHandler pHandler)
 			throws SAXException {
+		if (listener == null) {
+			serialize0(pNode, pHandler);
+		} else {
+			long time = System.nanoTime();
+			serialize0(pNode, pHandler);
+			listener.nodeSerialized(System.nanoTime() - time);
+		}
+	}
+
+	private void serialize0(Node pNode, ContentHandler pHandler)
+			throws SAXException {
 		if (!isNamespaceDeclarationAttribute()  &&
 				!isParentsNamespaceDeclarationDisabled()) {
 			parentsStartPrefixMappingEvents(pNode.getParentNode(), pHandler);
@@ -281,8 +309,8 @@ public class DOMSerializer {
 									throw new IllegalStateException("aLocalName is null");
 								}
 							}
-							attr.addAttribute(aUri == null ? "" : aUri, aNodeName,
-									aLocalName, "CDATA", a.getNodeValue());
+							attr.addAttribute(aUri == null ? "" : aUri, aLocalName,
+									aNodeName, "CDATA", a.getNodeValue());
 						}
 					}
 				}
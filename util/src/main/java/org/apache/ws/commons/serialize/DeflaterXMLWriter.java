@@ -0,0 +1,257 @@
+/*
+ * Copyright 2003, 2004  The Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ws.commons.serialize;
+
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.xml.sax.SAXException;
+
+
+/** A subclass of {@link Utf8XMLWriter}, which compresses its output.
+ * The writers byte buffer is passed directly to a {@link Deflater},
+ * so there is no need for a {@link java.util.zip.GZIPOutputStream},
+ * or a {@link java.util.zip.DeflaterOutputStream}, with a buffer
+ * of its own.<br>
+ * The compressed stream is terminated by {@link #endDocument()},
+ * which doesn't close the target stream. The flush mode controls,
+ * whether {@link #flush()} makes the output so far available to
+ * the receiver, at the cost of a worse compression ratio.
+ * Requires Java 7.
+ */
+public class DeflaterXMLWriter extends Utf8XMLWriter {
+	/** The output format of RFC 1952, as used by the HTTP content
+	 * encoding <code>gzip</code>.
+	 */
+	public static final int FORMAT_GZIP = 0;
+	/** The output format of RFC 1950, as used by the HTTP content
+	 * encoding <code>deflate</code>.
+	 */
+	public static final int FORMAT_DEFLATE = 1;
+
+	private static final byte[] GZIP_HEADER = new byte[]{
+		(byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+	};
+
+	private int format = FORMAT_GZIP;
+	private int level = Deflater.DEFAULT_COMPRESSION;
+	private int flushMode = Deflater.NO_FLUSH;
+	private Deflater deflater;
+	private final CRC32 crc = new CRC32();
+	private int uncompressedSize;
+	private byte[] compressed;
+	private boolean started, ending;
+
+	/** Sets the output format.
+	 * @param pFormat Either of {@link #FORMAT_GZIP} (default),
+	 * or {@link #FORMAT_DEFLATE}.
+	 * @throws IllegalStateException A document is currently being written.
+	 */
+	public void setFormat(int pFormat) {
+		if (pFormat != FORMAT_GZIP  &&  pFormat != FORMAT_DEFLATE) {
+			throw new IllegalArgumentException("Invalid format: " + pFormat);
+		}
+		if (started) {
+			throw new IllegalStateException("The format cannot be changed while writing a document.");
+		}
+		if (pFormat != format  &&  deflater != null) {
+			deflater.end();
+			deflater = null;
+		}
+		format = pFormat;
+	}
+
+	/** Returns the output format.
+	 * @return Either of {@link #FORMAT_GZIP} (default),
+	 * or {@link #FORMAT_DEFLATE}.
+	 */
+	public int getFormat() { return format; }
+
+	/** Sets the compression level.
+	 * @param pLevel The compression level, from 0 to 9, or
+	 * {@link Deflater#DEFAULT_COMPRESSION} (default).
+	 * @see Deflater#setLevel(int)
+	 */
+	public void setLevel(int pLevel) {
+		if ((pLevel < 0  ||  pLevel > 9)  &&  pLevel != Deflater.DEFAULT_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level: " + pLevel);
+		}
+		level = pLevel;
+		if (deflater != null) {
+			deflater.setLevel(pLevel);
+		}
+	}
+
+	/** Returns the compression level.
+	 * @return The compression level, from 0 to 9, or
+	 * {@link Deflater#DEFAULT_COMPRESSION} (default).
+	 */
+	public int getLevel() { return level; }
+
+	/** Sets the flush mode, which is used by {@link #flush()}.
+	 * @param pFlushMode Either of {@link Deflater#NO_FLUSH} (default,
+	 * best compression, but the receiver may not see all data, which
+	 * has been written so far), {@link Deflater#SYNC_FLUSH}, or
+	 * {@link Deflater#FULL_FLUSH}.
+	 */
+	public void setFlushMode(int pFlushMode) {
+		if (pFlushMode != Deflater.NO_FLUSH  &&  pFlushMode != Deflater.SYNC_FLUSH
+				&&  pFlushMode != Deflater.FULL_FLUSH) {
+			throw new IllegalArgumentException("Invalid flush mode: " + pFlushMode);
+		}
+		flushMode = pFlushMode;
+	}
+
+	/** Returns the flush mode, which is used by {@link #flush()}.
+	 * @return Either of {@link Deflater#NO_FLUSH} (default),
+	 * {@link Deflater#SYNC_FLUSH}, or {@link Deflater#FULL_FLUSH}.
+	 */
+	public int getFlushMode() { return flushMode; }
+
+	/** Releases the compressors native resources. The writer may
+	 * still be used afterwards, in which case a new compressor is
+	 * created.
+	 */
+	public void close() {
+		if (deflater != null) {
+			deflater.end();
+			deflater = null;
+		}
+		started = false;
+	}
+
+	public void startDocument() throws SAXException {
+		resetDeflater();
+		super.startDocument();
+	}
+
+	public void reset() {
+		super.reset();
+		resetDeflater();
+	}
+
+	private void resetDeflater() {
+		if (deflater != null) {
+			deflater.reset();
+		}
+		started = false;
+		ending = false;
+	}
+
+	/** Terminates the document, and writes the end of the compressed
+	 * stream.
+	 */
+	public void endDocument() throws SAXException {
+		ending = true;
+		try {
+			super.endDocument();
+			if (started) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					deflate(Deflater.NO_FLUSH);
+				}
+				if (format == FORMAT_GZIP) {
+					byte[] trailer = compressed;
+					writeInt(trailer, 0, (int) crc.getValue());
+					writeInt(trailer, 4, uncompressedSize);
+					super.writeBytes(trailer, 0, 8);
+				}
+				started = false;
+			}
+			if (isFlushing()) {
+				super.flushTarget();
+			}
+		} catch (IOException e) {
+			throw new SAXException(e);
+		} finally {
+			ending = false;
+		}
+	}
+
+	private static void writeInt(byte[] pBytes, int pOffset, int pValue) {
+		pBytes[pOffset] = (byte) pValue;
+		pBytes[pOffset+1] = (byte) (pValue >> 8);
+		pBytes[pOffset+2] = (byte) (pValue >> 16);
+		pBytes[pOffset+3] = (byte) (pValue >> 24);
+	}
+
+	/** Called before compressing the first bytes of a document:
+	 * Initializes the compressor, and writes the header.
+	 */
+	private void start() throws IOException {
+		if (deflater == null) {
+			deflater = new Deflater(level, format == FORMAT_GZIP);
+		}
+		if (compressed == null  ||  compressed.length != Math.max(getBufferSize(), 64)) {
+			compressed = new byte[Math.max(getBufferSize(), 64)];
+		}
+		crc.reset();
+		uncompressedSize = 0;
+		started = true;
+		if (format == FORMAT_GZIP) {
+			super.writeBytes(GZIP_HEADER, 0, GZIP_HEADER.length);
+		}
+	}
+
+	/** Compresses the given bytes, and writes the compressed data to the
+	 * target stream.
+	 */
+	protected void writeBytes(byte[] pBytes, int pOffset, int pLen) throws IOException {
+		if (pLen == 0  ||  !hasTarget()) {
+			return;
+		}
+		if (!started) {
+			start();
+		}
+		if (format == FORMAT_GZIP) {
+			crc.update(pBytes, pOffset, pLen);
+		}
+		uncompressedSize += pLen;
+		deflater.setInput(pBytes, pOffset, pLen);
+		while (!deflater.needsInput()) {
+			deflate(Deflater.NO_FLUSH);
+		}
+	}
+
+	/** Invokes the compressor once, and writes the compressed data
+	 * to the target stream.
+	 * @return True, if the output buffer has been filled completely.
+	 */
+	private boolean deflate(int pFlushMode) throws IOException {
+		int n = deflater.deflate(compressed, 0, compressed.length, pFlushMode);
+		if (n > 0) {
+			super.writeBytes(compressed, 0, n);
+		}
+		return n == compressed.length;
+	}
+
+	/** Writes the pending compressed data, according to the flush mode,
+	 * and flushes the target stream.
+	 */
+	protected void flushTarget() throws IOException {
+		if (ending) {
+			// endDocument flushes the target after finishing the compressed stream.
+			return;
+		}
+		if (started  &&  flushMode != Deflater.NO_FLUSH) {
+			while (deflate(flushMode)) {
+				// Repeat, until the output buffer isn't filled completely.
+			}
+		}
+		super.flushTarget();
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2003, 2004  The Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ws.commons.serialize;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+
+import org.xml.sax.SAXException;
+
+
+/** A subclass of {@link Utf8XMLWriter}, which feeds the bytes
+ * written to the target stream into one or more instances of
+ * {@link MessageDigest}, while serializing. This allows to compute
+ * the digest of a subtree, for example for signing it, without
+ * serializing it twice.<br>
+ * The digested range is marked by calling {@link #startDigest()}
+ * immediately before the first element of the range, and
+ * {@link #endDigest()} immediately after the last element. The digest
+ * includes exactly the bytes from the first elements start tag
+ * up to the last elements end tag. Works with Java 1.2 and later.
+ */
+public class DigestXMLWriter extends Utf8XMLWriter {
+	private static final MessageDigest[] NO_DIGESTS = new MessageDigest[0];
+	private MessageDigest[] digests = NO_DIGESTS;
+	private boolean armed, digesting;
+
+	/** Sets the digests, which are being updated.
+	 * @param pDigests The digests, or null for none.
+	 */
+	public void setMessageDigests(MessageDigest[] pDigests) {
+		digests = pDigests == null ? NO_DIGESTS : pDigests;
+	}
+
+	/** Returns the digests, which are being updated.
+	 * @return The digests, possibly an empty array, but never null.
+	 */
+	public MessageDigest[] getMessageDigests() {
+		return digests;
+	}
+
+	/** Sets the start of the digested range: The digests are updated,
+	 * starting with the next start tag. Any pending output, like
+	 * the terminator of the parent elements start tag, or indentation,
+	 * isn't included.
+	 */
+	public void startDigest() {
+		armed = true;
+	}
+
+	/** Sets the end of the digested range: Output, which has been
+	 * written so far, is included in the digests, and subsequent
+	 * output isn't.
+	 * @throws SAXException Flushing the internal buffer failed.
+	 */
+	public void endDigest() throws SAXException {
+		armed = false;
+		if (digesting) {
+			try {
+				flushBuffer();
+			} catch (IOException e) {
+				throw new SAXException(e);
+			}
+			digesting = false;
+		}
+	}
+
+	/** Returns, whether the digests are currently being updated.
+	 * @return True, if the output is currently being digested.
+	 */
+	public boolean isDigesting() {
+		return digesting;
+	}
+
+	public void startDocument() throws SAXException {
+		armed = false;
+		digesting = false;
+		super.startDocument();
+	}
+
+	public void reset() {
+		super.reset();
+		armed = false;
+		digesting = false;
+	}
+
+	/** Called before writing a start tag, or a fragment: If the writer is
+	 * armed, then the internal buffer is flushed, and digesting
+	 * starts.
+	 */
+	private void startDigesting() throws IOException {
+		if (armed) {
+			flushBuffer();
+			armed = false;
+			digesting = true;
+		}
+	}
+
+	protected void writeStartTag(String pQName) throws IOException {
+		startDigesting();
+		super.writeStartTag(pQName);
+	}
+
+	protected void writeFragment(PreSerializedFragment pFragment, boolean pHead) throws IOException {
+		if (pHead) {
+			startDigesting();
+		}
+		super.writeFragment(pFragment, pHead);
+	}
+
+	protected void writeBytes(byte[] pBytes, int pOffset, int pLen) throws IOException {
+		if (digesting) {
+			for (int i = 0;  i < digests.length;  i++) {
+				digests[i].update(pBytes, pOffset, pLen);
+			}
+		}
+		super.writeBytes(pBytes, pOffset, pLen);
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2003, 2004  The Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ws.commons.serialize;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.UndeclaredThrowableException;
+
+
+/** A bounded cache of element and attribute names, which holds
+ * the markup around the names (<code>&lt;name</code>,
+ * <code>&lt;/name&gt;</code>, and <code> name="</code>)
+ * already prepared for the writer. Lookups compare the names
+ * by identity first, and by {@link String#equals(Object)} otherwise.
+ * Instances are not thread safe.
+ */
+final class NameCache {
+	/** The cached markup of a single name. The arrays are created
+	 * lazily, when first requested.
+	 */
+	static final class Entry {
+		final String name;
+		private char[] startTag, endTag, attribute;
+		private byte[] utf8StartTag, utf8EndTag, utf8Attribute;
+		Entry(String pName) { name = pName; }
+		/** Returns <code>&lt;name</code>.
+		 */
+		char[] getStartTag() {
+			if (startTag == null) {
+				startTag = ("<" + name).toCharArray();
+			}
+			return startTag;
+		}
+		/** Returns <code>&lt;/name&gt;</code>.
+		 */
+		char[] getEndTag() {
+			if (endTag == null) {
+				endTag = ("</" + name + ">").toCharArray();
+			}
+			return endTag;
+		}
+		/** Returns <code> name="</code>.
+		 */
+		char[] getAttribute() {
+			if (attribute == null) {
+				attribute = (" " + name + "=\"").toCharArray();
+			}
+			return attribute;
+		}
+		/** Returns {@link #getStartTag()}, UTF-8 encoded.
+		 */
+		byte[] getUtf8StartTag() {
+			if (utf8StartTag == null) {
+				utf8StartTag = toUtf8(getStartTag());
+			}
+			return utf8StartTag;
+		}
+		/** Returns {@link #getEndTag()}, UTF-8 encoded.
+		 */
+		byte[] getUtf8EndTag() {
+			if (utf8EndTag == null) {
+				utf8EndTag = toUtf8(getEndTag());
+			}
+			return utf8EndTag;
+		}
+		/** Returns {@link #getAttribute()}, UTF-8 encoded.
+		 */
+		byte[] getUtf8Attribute() {
+			if (utf8Attribute == null) {
+				utf8Attribute = toUtf8(getAttribute());
+			}
+			return utf8Attribute;
+		}
+		private static byte[] toUtf8(char[] pChars) {
+			try {
+				return new String(pChars).getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new UndeclaredThrowableException(e);
+			}
+		}
+	}
+
+	/** Default number of cached names.
+	 */
+	static final int DEFAULT_SIZE = 1024;
+	/** Number of slots, which are searched for a name, before
+	 * an existing entry is replaced.
+	 */
+	private static final int MAX_PROBES = 4;
+
+	private final Entry[] entries;
+	private final int mask;
+
+	/** Creates a new instance with the given size.
+	 * @param pSize Maximum number of cached names, which is
+	 * rounded up to the next power of two.
+	 */
+	NameCache(int pSize) {
+		int size = 1;
+		while (size < pSize) {
+			size <<= 1;
+		}
+		entries = new Entry[size];
+		mask = size-1;
+	}
+
+	/** Returns the entry for the given name, creating it,
+	 * if necessary.
+	 */
+	Entry get(String pName) {
+		int home = pName.hashCode() & mask;
+		int slot = home;
+		for (int i = 0;  i < MAX_PROBES;  i++) {
+			Entry entry = entries[slot];
+			if (entry == null) {
+				entry = new Entry(pName);
+				entries[slot] = entry;
+				return entry;
+			}
+			if (entry.name == pName  ||  entry.name.equals(pName)) {
+				return entry;
+			}
+			slot = (slot + 1) & mask;
+		}
+		Entry entry = new Entry(pName);
+		entries[home] = entry;
+		return entry;
+	}
+}
@@ -15,53 +15,115 @@
  */
 package org.apache.ws.commons.serialize;
 
-import java.util.Arrays;
-import java.util.Comparator;
+import java.io.IOException;
 
 import org.xml.sax.Attributes;
-import org.xml.sax.SAXException;
-import org.xml.sax.helpers.AttributesImpl;
 
 
 /** A subclass of {@link org.apache.ws.commons.serialize.XMLWriterImpl},
  * which writes the attributes ordered alphabetically. This is mainly
  * useful for test purposes, when a canonical representation of the
  * result is required for comparing against an expected value.
+ * Attributes are ordered by namespace URI first, and local name second.
+ * The attributes are sorted in reusable arrays, without creating any
+ * objects.
  */
 public class OrderedAttributeXMLWriter extends XMLWriterImpl {
-    public void startElement(String pNamespaceURI, String pLocalName,
-                             String pQName, final Attributes pAttrs)
-            throws SAXException {
-        Integer[] attributeNumbers = new Integer[pAttrs.getLength()];
-        for (int i = 0;  i < attributeNumbers.length;  i++) {
-        	attributeNumbers[i] = new Integer(i);
-        }
-        Arrays.sort(attributeNumbers, new Comparator(){
-			public int compare(Object pNum1, Object pNum2) {
-                int i1 = ((Integer) pNum1).intValue();
-                int i2 = ((Integer) pNum2).intValue();
-                String uri1 = pAttrs.getURI(i1);
-                if (uri1 == null) {
-                	uri1 = "";
-                }
-                String uri2 = pAttrs.getURI(i2);
-                if (uri2 == null) {
-                	uri2 = "";
-                }
-                int result = uri1.compareTo(uri2);
-                if (result == 0) {
-                	result = pAttrs.getLocalName(i1).compareTo(pAttrs.getLocalName(i2));
-                }
-                return result;
+	/** Number of attributes, up to which insertion sort is used.
+	 */
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+	private int[] indexes = new int[16];
+	private int[] mergeBuffer;
+	private String[] uris = new String[16];
+	private String[] localNames = new String[16];
+
+	protected void writeAttributes(Attributes pAttrs) throws IOException {
+		int len = pAttrs.getLength();
+		if (len == 0) {
+			return;
+		}
+		if (len > indexes.length) {
+			int size = Math.max(len, indexes.length * 2);
+			indexes = new int[size];
+			uris = new String[size];
+			localNames = new String[size];
+		}
+		for (int i = 0;  i < len;  i++) {
+			indexes[i] = i;
+			String uri = pAttrs.getURI(i);
+			uris[i] = uri == null ? "" : uri;
+			localNames[i] = pAttrs.getLocalName(i);
+		}
+		if (len <= INSERTION_SORT_THRESHOLD) {
+			insertionSort(0, len);
+		} else {
+			if (mergeBuffer == null  ||  mergeBuffer.length < len) {
+				mergeBuffer = new int[indexes.length];
+			}
+			mergeSort(0, len);
+		}
+		for (int i = 0;  i < len;  i++) {
+			writeAttribute(pAttrs, indexes[i]);
+		}
+		for (int i = 0;  i < len;  i++) {
+			uris[i] = null;
+			localNames[i] = null;
+		}
+	}
+
+	/** Compares the attributes with the given indexes.
+	 */
+	private int compare(int pIndex1, int pIndex2) {
+		int result = uris[pIndex1].compareTo(uris[pIndex2]);
+		if (result == 0) {
+			result = localNames[pIndex1].compareTo(localNames[pIndex2]);
+		}
+		return result;
+	}
+
+	private void insertionSort(int pFrom, int pTo) {
+		int[] idx = indexes;
+		for (int i = pFrom + 1;  i < pTo;  i++) {
+			int current = idx[i];
+			int j = i;
+			while (j > pFrom  &&  compare(idx[j-1], current) > 0) {
+				idx[j] = idx[j-1];
+				--j;
+			}
+			idx[j] = current;
+		}
+	}
+
+	/** Stable merge sort, which is used for elements with many
+	 * attributes.
+	 */
+	private void mergeSort(int pFrom, int pTo) {
+		if (pTo - pFrom <= INSERTION_SORT_THRESHOLD) {
+			insertionSort(pFrom, pTo);
+			return;
+		}
+		int mid = (pFrom + pTo) >>> 1;
+		mergeSort(pFrom, mid);
+		mergeSort(mid, pTo);
+		int[] idx = indexes;
+		if (compare(idx[mid-1], idx[mid]) <= 0) {
+			return;
+		}
+		int[] buf = mergeBuffer;
+		System.arraycopy(idx, pFrom, buf, pFrom, pTo - pFrom);
+		int i = pFrom, j = mid, k = pFrom;
+		while (i < mid  &&  j < pTo) {
+			if (compare(buf[j], buf[i]) < 0) {
+				idx[k++] = buf[j++];
+			} else {
+				idx[k++] = buf[i++];
 			}
-        });
-        AttributesImpl orderedAttributes = new AttributesImpl();
-        for (int i = 0;  i < attributeNumbers.length;  i++) {
-        	int num = attributeNumbers[i].intValue();
-            orderedAttributes.addAttribute(pAttrs.getURI(num), pAttrs.getLocalName(num),
-                                           pAttrs.getQName(num), pAttrs.getType(num),
-                                           pAttrs.getValue(num));
-        }
-        super.startElement(pNamespaceURI, pLocalName, pQName, orderedAttributes);
-    }
+		}
+		while (i < mid) {
+			idx[k++] = buf[i++];
+		}
+		while (j < pTo) {
+			idx[k++] = buf[j++];
+		}
+	}
 }
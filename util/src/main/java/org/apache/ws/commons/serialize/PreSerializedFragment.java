@@ -0,0 +1,236 @@
+/*
+ * Copyright 2003, 2004  The Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ws.commons.serialize;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+
+/** An immutable XML fragment, which has been serialized once, and
+ * may be written by {@link XMLWriter#writeFragment(PreSerializedFragment)}
+ * any number of times, without escaping or encoding it again. This
+ * is useful for static subtrees, like policy blocks, or WSDL
+ * fragments.<br>
+ * Characters outside of the ASCII range are written as character
+ * references, so that the fragment may be written to targets with
+ * any encoding. The namespace declarations, which are required by
+ * the fragment, are written on its root element, so that the fragment
+ * doesn't depend on the context, where it is being inserted.
+ * Instances may be shared by multiple threads.
+ */
+public final class PreSerializedFragment {
+	/** The writer, which is used for serializing the fragment.
+	 */
+	private static class Recorder extends XMLWriterImpl {
+		private final CharArrayWriter caw = new CharArrayWriter();
+		private final List prefixes = new ArrayList();
+		private final List uris = new ArrayList();
+		private boolean inRoot = true;
+		private int rootTagEnd = -1;
+		Recorder() {
+			setWriter(caw);
+		}
+		private void declare(String pPrefix, String pURI) {
+			int i = prefixes.indexOf(pPrefix);
+			if (i == -1) {
+				prefixes.add(pPrefix);
+				uris.add(pURI);
+			} else {
+				uris.set(i, pURI);
+			}
+		}
+		public void startPrefixMapping(String pPrefix, String pURI) throws SAXException {
+			if (inRoot  &&  !("".equals(pPrefix)  &&  "".equals(pURI))) {
+				declare(pPrefix, pURI);
+			}
+			super.startPrefixMapping(pPrefix, pURI);
+		}
+		public void startElement(String pNamespaceURI, String pLocalName, String pQName,
+				Attributes pAttrs) throws SAXException {
+			if (!inRoot) {
+				super.startElement(pNamespaceURI, pLocalName, pQName, pAttrs);
+				return;
+			}
+			inRoot = false;
+			if (pAttrs != null) {
+				for (int i = 0;  i < pAttrs.getLength();  i++) {
+					String qName = pAttrs.getQName(i);
+					if (qName.equals(XMLConstants.XMLNS_ATTRIBUTE)) {
+						declare("", pAttrs.getValue(i));
+					} else if (qName.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":")) {
+						declare(qName.substring(XMLConstants.XMLNS_ATTRIBUTE.length()+1), pAttrs.getValue(i));
+					}
+				}
+			}
+			super.startElement(pNamespaceURI, pLocalName, pQName, pAttrs);
+			try {
+				flushBuffer();
+			} catch (IOException e) {
+				throw new SAXException(e);
+			}
+			rootTagEnd = caw.size();
+		}
+		PreSerializedFragment getFragment() throws SAXException {
+			try {
+				flushBuffer();
+			} catch (IOException e) {
+				throw new SAXException(e);
+			}
+			if (getDepth() != 0) {
+				throw new SAXException("The fragment contains unterminated elements.");
+			}
+			return new PreSerializedFragment(caw.toCharArray(),
+											 rootTagEnd,
+											 (String[]) prefixes.toArray(new String[prefixes.size()]),
+											 (String[]) uris.toArray(new String[uris.size()]));
+		}
+	}
+
+	private final char[] chars;
+	private final byte[] utf8Bytes;
+	private final int insertPos, utf8InsertPos;
+	private final boolean ascii, element;
+	private final String[] prefixes, uris;
+
+	private PreSerializedFragment(char[] pChars, int pInsertPos, String[] pPrefixes, String[] pURIs) {
+		chars = pChars;
+		element = pInsertPos != -1;
+		insertPos = element ? pInsertPos : pChars.length;
+		prefixes = pPrefixes;
+		uris = pURIs;
+		boolean isAscii = true;
+		for (int i = 0;  i < pChars.length;  i++) {
+			if (pChars[i] >= 0x80) {
+				isAscii = false;
+				break;
+			}
+		}
+		ascii = isAscii;
+		if (isAscii) {
+			utf8Bytes = new byte[pChars.length];
+			for (int i = 0;  i < pChars.length;  i++) {
+				utf8Bytes[i] = (byte) pChars[i];
+			}
+			utf8InsertPos = insertPos;
+		} else {
+			try {
+				utf8Bytes = new String(pChars).getBytes("UTF-8");
+				utf8InsertPos = new String(pChars, 0, insertPos).getBytes("UTF-8").length;
+			} catch (UnsupportedEncodingException e) {
+				throw new UndeclaredThrowableException(e);
+			}
+		}
+	}
+
+	/** Creates a new instance by serializing the given DOM node.
+	 * Namespace declarations of the nodes parents are written on
+	 * the fragments root element.
+	 * @param pNode The node being serialized.
+	 * @throws SAXException Serializing the node failed.
+	 */
+	public static PreSerializedFragment newInstance(Node pNode) throws SAXException {
+		Recorder recorder = new Recorder();
+		new DOMSerializer().serialize(pNode, recorder);
+		return recorder.getFragment();
+	}
+
+	/** Creates a new instance by replaying the given events.
+	 * Prefix mappings, which are started before the first element,
+	 * are written on the fragments root element.
+	 * @param pEvents The recorded fragment.
+	 * @throws SAXException Serializing the events failed.
+	 */
+	public static PreSerializedFragment newInstance(SAXEventBuffer pEvents) throws SAXException {
+		Recorder recorder = new Recorder();
+		pEvents.replay(recorder);
+		return recorder.getFragment();
+	}
+
+	/** Returns the number of namespace declarations, which are
+	 * written on the fragments root element.
+	 * @return Number of namespace declarations.
+	 */
+	public int getNamespaceCount() { return prefixes.length; }
+
+	/** Returns the prefix of the namespace declaration with the
+	 * given index.
+	 * @param pIndex The declarations index, from 0 to
+	 * {@link #getNamespaceCount()}-1.
+	 * @return The declared prefix, possibly the empty string.
+	 */
+	public String getPrefix(int pIndex) { return prefixes[pIndex]; }
+
+	/** Returns the URI of the namespace declaration with the
+	 * given index.
+	 * @param pIndex The declarations index, from 0 to
+	 * {@link #getNamespaceCount()}-1.
+	 * @return The declared namespace URI.
+	 */
+	public String getNamespaceURI(int pIndex) { return uris[pIndex]; }
+
+	/** Returns, whether the fragment declares the given prefix.
+	 */
+	boolean isDeclaring(String pPrefix) {
+		for (int i = 0;  i < prefixes.length;  i++) {
+			if (prefixes[i].equals(pPrefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Returns, whether the fragment contains an element.
+	 */
+	boolean hasElement() { return element; }
+
+	/** Returns, whether the fragment consists of ASCII characters only.
+	 */
+	boolean isAscii() { return ascii; }
+
+	/** Returns the serialized fragment. The array must not be modified.
+	 */
+	char[] getChars() { return chars; }
+
+	/** Returns the serialized fragment, UTF-8 encoded. The array must
+	 * not be modified.
+	 */
+	byte[] getUtf8Bytes() { return utf8Bytes; }
+
+	/** Returns the position, where additional namespace declarations
+	 * may be inserted into the root elements start tag.
+	 */
+	int getInsertPos() { return insertPos; }
+
+	/** Returns the position in {@link #getUtf8Bytes()}, where additional
+	 * namespace declarations may be inserted into the root elements
+	 * start tag.
+	 */
+	int getUtf8InsertPos() { return utf8InsertPos; }
+
+	public String toString() {
+		return new String(chars);
+	}
+}
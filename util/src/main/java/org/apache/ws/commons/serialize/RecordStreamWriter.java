@@ -0,0 +1,246 @@
+/*
+ * Copyright 2003, 2004  The Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ws.commons.serialize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+
+/** A writer for a single, long running, UTF-8 encoded XML document,
+ * to which any number of threads are appending complete records
+ * (subtrees of the document element), for example an audit feed.<br>
+ * Each thread serializes its records into a buffer of its own, using
+ * a thread local {@link XMLWriter}, which is returned by
+ * {@link #startRecord()}. Escaping and encoding are thus done on the
+ * calling thread, without any locking. {@link #endRecord()} passes the
+ * buffer through a lock free queue to the sequencer, which copies
+ * whole records into the target stream. There is no dedicated
+ * sequencer thread: The first thread, which finds the sequencer idle,
+ * takes over its role, and drains the queue. Other threads return
+ * immediately.<br>
+ * The enclosing document element is written by
+ * {@link #startDocument(String, Attributes)} and
+ * {@link #endDocument()}, which must not be invoked concurrently
+ * with the records. Requires Java 5.
+ */
+public class RecordStreamWriter {
+	/** A growable buffer, which receives a single record.
+	 */
+	private static class RecordBuffer extends OutputStream {
+		byte[] bytes = new byte[1024];
+		int len;
+		public void write(int pByte) {
+			if (len == bytes.length) {
+				grow(1);
+			}
+			bytes[len++] = (byte) pByte;
+		}
+		public void write(byte[] pBytes, int pOffset, int pLen) {
+			if (len + pLen > bytes.length) {
+				grow(pLen);
+			}
+			System.arraycopy(pBytes, pOffset, bytes, len, pLen);
+			len += pLen;
+		}
+		private void grow(int pLen) {
+			byte[] b = new byte[Math.max(bytes.length * 2, len + pLen)];
+			System.arraycopy(bytes, 0, b, 0, len);
+			bytes = b;
+		}
+	}
+
+	/** The per thread state.
+	 */
+	private static class Producer {
+		final Utf8XMLWriter writer = new Utf8XMLWriter();
+		RecordBuffer buffer;
+		boolean inRecord;
+	}
+
+	private final OutputStream out;
+	private final ConcurrentLinkedQueue records = new ConcurrentLinkedQueue();
+	private final ConcurrentLinkedQueue freeBuffers = new ConcurrentLinkedQueue();
+	private final AtomicBoolean sequencing = new AtomicBoolean();
+	private final ThreadLocal producers = new ThreadLocal();
+	private final Utf8XMLWriter documentWriter = new Utf8XMLWriter();
+	private volatile IOException failure;
+	private String rootQName;
+	private boolean declarating;
+
+	/** Creates a new instance, which is writing to the given stream.
+	 * @param pStream The target stream.
+	 */
+	public RecordStreamWriter(OutputStream pStream) {
+		out = pStream;
+		documentWriter.setOutputStream(pStream);
+	}
+
+	/** Sets, whether an XML declaration is being generated.
+	 * @param pDeclarating Whether an XML declaration is generated. Defaults
+	 * to false.
+	 */
+	public void setDeclarating(boolean pDeclarating) { declarating = pDeclarating; }
+
+	/** Returns, whether an XML declaration is being generated.
+	 * @return Whether an XML declaration is generated. Defaults
+	 * to false.
+	 */
+	public boolean isDeclarating() { return declarating; }
+
+	/** Writes the XML declaration (if enabled), and the start tag of
+	 * the document element. Namespace declarations, which are used by
+	 * the records, should be passed as attributes.
+	 * @param pQName The document elements qualified name.
+	 * @param pAttrs The document elements attributes, or null.
+	 * @throws SAXException Writing to the target stream failed.
+	 */
+	public void startDocument(String pQName, Attributes pAttrs) throws SAXException {
+		if (rootQName != null) {
+			throw new IllegalStateException("The document element has already been started.");
+		}
+		documentWriter.setDeclarating(declarating);
+		documentWriter.startDocument();
+		documentWriter.startElement(null, null, pQName, pAttrs);
+		// Terminate the start tag
+		documentWriter.characters(new char[0], 0, 0);
+		try {
+			documentWriter.flush();
+		} catch (IOException e) {
+			throw new SAXException(e);
+		}
+		rootQName = pQName;
+	}
+
+	/** Waits, until all completed records have been written, and
+	 * writes the end tag of the document element. Records, which
+	 * haven't been completed by invoking {@link #endRecord()}, are
+	 * lost.
+	 * @throws SAXException Writing to the target stream failed.
+	 */
+	public void endDocument() throws SAXException {
+		if (rootQName == null) {
+			throw new IllegalStateException("The document element has not been started.");
+		}
+		try {
+			while (!records.isEmpty()) {
+				sequence();
+				Thread.yield();
+			}
+			checkFailure();
+		} catch (IOException e) {
+			throw new SAXException(e);
+		}
+		documentWriter.endElement(null, null, rootQName);
+		documentWriter.setFlushing(true);
+		documentWriter.endDocument();
+		rootQName = null;
+	}
+
+	/** Starts a new record, and returns the writer, which must be used
+	 * by the current thread for writing it. The writer is owned by the
+	 * current thread, and reused for all records of that thread. The
+	 * record may consist of any well balanced content.
+	 * @return The writer for the records content.
+	 */
+	public XMLWriter startRecord() {
+		Producer p = (Producer) producers.get();
+		if (p == null) {
+			p = new Producer();
+			producers.set(p);
+		}
+		if (p.inRecord) {
+			throw new IllegalStateException("The current thread has already started a record.");
+		}
+		RecordBuffer rb = (RecordBuffer) freeBuffers.poll();
+		if (rb == null) {
+			rb = new RecordBuffer();
+		}
+		p.buffer = rb;
+		p.writer.setOutputStream(rb);
+		p.inRecord = true;
+		return p.writer;
+	}
+
+	/** Terminates the current threads record, and passes it to the
+	 * sequencer.
+	 * @throws SAXException Writing to the target stream failed, or
+	 * the record isn't well balanced.
+	 */
+	public void endRecord() throws SAXException {
+		Producer p = (Producer) producers.get();
+		if (p == null  ||  !p.inRecord) {
+			throw new IllegalStateException("The current thread has no open record.");
+		}
+		p.inRecord = false;
+		RecordBuffer rb = p.buffer;
+		p.buffer = null;
+		Utf8XMLWriter w = p.writer;
+		try {
+			w.flush();
+			if (w.getDepth() != 0) {
+				rb.len = 0;
+				freeBuffers.offer(rb);
+				w.startDocument();
+				throw new SAXException("The record contains unterminated elements.");
+			}
+			records.offer(rb);
+			sequence();
+			checkFailure();
+		} catch (IOException e) {
+			throw new SAXException(e);
+		} finally {
+			w.setOutputStream(null);
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		IOException e = failure;
+		if (e != null) {
+			throw e;
+		}
+	}
+
+	/** Takes over the sequencer role, if it is idle, and copies the
+	 * queued records into the target stream.
+	 */
+	private void sequence() throws IOException {
+		while (!records.isEmpty()  &&  sequencing.compareAndSet(false, true)) {
+			try {
+				RecordBuffer rb;
+				while ((rb = (RecordBuffer) records.poll()) != null) {
+					try {
+						if (failure == null) {
+							out.write(rb.bytes, 0, rb.len);
+						}
+					} catch (IOException e) {
+						failure = e;
+						throw e;
+					} finally {
+						rb.len = 0;
+						freeBuffers.offer(rb);
+					}
+				}
+			} finally {
+				sequencing.set(false);
+			}
+		}
+	}
+}
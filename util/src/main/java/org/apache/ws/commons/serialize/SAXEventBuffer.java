@@ -0,0 +1,471 @@
+/*
+ * Copyright 2003, 2004  The Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ws.commons.serialize;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+
+/** A {@link ContentHandler}, and {@link LexicalHandler}, which records
+ * a stream of SAX events, so that it can be replayed any number of
+ * times by invoking {@link #replay(ContentHandler)}. This is useful for
+ * fragments, which are serialized over and over, like SOAP headers:
+ * Replaying is much faster than parsing, or walking a DOM tree.<br>
+ * The events are stored in a compact form: A single array of event
+ * codes, a single array of strings (all equal strings are stored as
+ * the same instance), and a single array of characters. Attributes
+ * are prepared while recording, so that replaying doesn't create any
+ * objects.<br>
+ * Once {@link #freeze()} has been invoked (implicitly by the first
+ * replay), no more events may be recorded, and the buffer is
+ * immutable: It may then be replayed by any number of threads
+ * concurrently. The character arrays, which are passed to the
+ * target handlers, must not be modified.
+ * The document locator isn't recorded.
+ */
+public class SAXEventBuffer implements ContentHandler, LexicalHandler {
+	private static final int START_DOCUMENT = 1;
+	private static final int END_DOCUMENT = 2;
+	private static final int START_PREFIX_MAPPING = 3;
+	private static final int END_PREFIX_MAPPING = 4;
+	private static final int START_ELEMENT = 5;
+	private static final int END_ELEMENT = 6;
+	private static final int CHARACTERS = 7;
+	private static final int IGNORABLE_WHITESPACE = 8;
+	private static final int PROCESSING_INSTRUCTION = 9;
+	private static final int SKIPPED_ENTITY = 10;
+	private static final int START_DTD = 11;
+	private static final int END_DTD = 12;
+	private static final int START_ENTITY = 13;
+	private static final int END_ENTITY = 14;
+	private static final int START_CDATA = 15;
+	private static final int END_CDATA = 16;
+	private static final int COMMENT = 17;
+
+	private static final Attributes NO_ATTRIBUTES = new RecordedAttributes(new String[0], 0, 0);
+
+	/** An immutable implementation of {@link Attributes}, which is
+	 * backed by the buffers string array.
+	 */
+	private static class RecordedAttributes implements Attributes {
+		private final String[] strings;
+		private final int offset, length;
+		RecordedAttributes(String[] pStrings, int pOffset, int pLength) {
+			strings = pStrings;
+			offset = pOffset;
+			length = pLength;
+		}
+		private String get(int pIndex, int pField) {
+			if (pIndex < 0  ||  pIndex >= length) {
+				return null;
+			}
+			return strings[offset + pIndex*5 + pField];
+		}
+		public int getLength() { return length; }
+		public String getURI(int pIndex) { return get(pIndex, 0); }
+		public String getLocalName(int pIndex) { return get(pIndex, 1); }
+		public String getQName(int pIndex) { return get(pIndex, 2); }
+		public String getType(int pIndex) { return get(pIndex, 3); }
+		public String getValue(int pIndex) { return get(pIndex, 4); }
+		public int getIndex(String pURI, String pLocalName) {
+			for (int i = 0;  i < length;  i++) {
+				if (pURI.equals(getURI(i))  &&  pLocalName.equals(getLocalName(i))) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		public int getIndex(String pQName) {
+			for (int i = 0;  i < length;  i++) {
+				if (pQName.equals(getQName(i))) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		public String getType(String pURI, String pLocalName) {
+			return getType(getIndex(pURI, pLocalName));
+		}
+		public String getType(String pQName) {
+			return getType(getIndex(pQName));
+		}
+		public String getValue(String pURI, String pLocalName) {
+			return getValue(getIndex(pURI, pLocalName));
+		}
+		public String getValue(String pQName) {
+			return getValue(getIndex(pQName));
+		}
+	}
+
+	private int[] ints = new int[64];
+	private int numInts;
+	private String[] strings = new String[64];
+	private int numStrings;
+	private char[] chars = new char[256];
+	private int numChars;
+	private Attributes[] attributes = new Attributes[16];
+	private int numAttributes;
+	private Map internedStrings = new HashMap();
+	/** The trimmed arrays, which are created by {@link #freeze()}. Replaying
+	 * threads access the buffer through this field only, so that they
+	 * never see the arrays, which are used while recording.
+	 */
+	private volatile Snapshot snapshot;
+
+	/** The immutable state of a frozen buffer.
+	 */
+	private static class Snapshot {
+		final int[] ints;
+		final int numInts;
+		final String[] strings;
+		final char[] chars;
+		final Attributes[] attributes;
+		Snapshot(int[] pInts, String[] pStrings, char[] pChars, Attributes[] pAttributes) {
+			ints = pInts;
+			numInts = pInts.length;
+			strings = pStrings;
+			chars = pChars;
+			attributes = pAttributes;
+		}
+	}
+
+	/** Terminates the recording, and makes the buffer immutable.
+	 * Invoked automatically by the first call to
+	 * {@link #replay(ContentHandler)}.
+	 */
+	public synchronized void freeze() {
+		if (snapshot == null) {
+			int[] i = new int[numInts];
+			System.arraycopy(ints, 0, i, 0, numInts);
+			ints = i;
+			char[] c = new char[numChars];
+			System.arraycopy(chars, 0, c, 0, numChars);
+			chars = c;
+			Attributes[] a = new Attributes[numAttributes];
+			System.arraycopy(attributes, 0, a, 0, numAttributes);
+			attributes = a;
+			/* The string array isn't trimmed, because it is
+			 * shared by the attributes.
+			 */
+			internedStrings = null;
+			snapshot = new Snapshot(ints, strings, chars, attributes);
+		}
+	}
+
+	/** Returns, whether the buffer has been frozen.
+	 * @return True, if no more events may be recorded.
+	 * @see #freeze()
+	 */
+	public boolean isFrozen() {
+		return snapshot != null;
+	}
+
+	/** Replays the recorded events into the given handler. If the
+	 * handler is an instance of {@link LexicalHandler}, then the
+	 * recorded lexical events are replayed as well.
+	 * @param pHandler The target handler.
+	 * @throws SAXException The target handler reported an error.
+	 */
+	public void replay(ContentHandler pHandler) throws SAXException {
+		Snapshot snap = snapshot;
+		if (snap == null) {
+			freeze();
+			snap = snapshot;
+		}
+		final LexicalHandler lh = (pHandler instanceof LexicalHandler) ? (LexicalHandler) pHandler : null;
+		final int[] ops = snap.ints;
+		final int len = snap.numInts;
+		final String[] s = snap.strings;
+		final char[] c = snap.chars;
+		final Attributes[] a = snap.attributes;
+		int sp = 0, cp = 0, ap = 0;
+		for (int ip = 0;  ip < len;  ) {
+			switch (ops[ip++]) {
+				case START_DOCUMENT:
+					pHandler.startDocument();
+					break;
+				case END_DOCUMENT:
+					pHandler.endDocument();
+					break;
+				case START_PREFIX_MAPPING:
+					pHandler.startPrefixMapping(s[sp], s[sp+1]);
+					sp += 2;
+					break;
+				case END_PREFIX_MAPPING:
+					pHandler.endPrefixMapping(s[sp++]);
+					break;
+				case START_ELEMENT: {
+					int numAttrs = ops[ip++];
+					Attributes attrs;
+					if (numAttrs == 0) {
+						attrs = NO_ATTRIBUTES;
+					} else {
+						attrs = a[ap++];
+					}
+					pHandler.startElement(s[sp], s[sp+1], s[sp+2], attrs);
+					sp += 3 + numAttrs*5;
+					break;
+				}
+				case END_ELEMENT:
+					pHandler.endElement(s[sp], s[sp+1], s[sp+2]);
+					sp += 3;
+					break;
+				case CHARACTERS: {
+					int n = ops[ip++];
+					pHandler.characters(c, cp, n);
+					cp += n;
+					break;
+				}
+				case IGNORABLE_WHITESPACE: {
+					int n = ops[ip++];
+					pHandler.ignorableWhitespace(c, cp, n);
+					cp += n;
+					break;
+				}
+				case PROCESSING_INSTRUCTION:
+					pHandler.processingInstruction(s[sp], s[sp+1]);
+					sp += 2;
+					break;
+				case SKIPPED_ENTITY:
+					pHandler.skippedEntity(s[sp++]);
+					break;
+				case START_DTD:
+					if (lh != null) {
+						lh.startDTD(s[sp], s[sp+1], s[sp+2]);
+					}
+					sp += 3;
+					break;
+				case END_DTD:
+					if (lh != null) {
+						lh.endDTD();
+					}
+					break;
+				case START_ENTITY:
+					if (lh != null) {
+						lh.startEntity(s[sp]);
+					}
+					sp++;
+					break;
+				case END_ENTITY:
+					if (lh != null) {
+						lh.endEntity(s[sp]);
+					}
+					sp++;
+					break;
+				case START_CDATA:
+					if (lh != null) {
+						lh.startCDATA();
+					}
+					break;
+				case END_CDATA:
+					if (lh != null) {
+						lh.endCDATA();
+					}
+					break;
+				case COMMENT: {
+					int n = ops[ip++];
+					if (lh != null) {
+						lh.comment(c, cp, n);
+					}
+					cp += n;
+					break;
+				}
+				default:
+					throw new IllegalStateException("Unknown event type: " + ops[ip-1]);
+			}
+		}
+	}
+
+	private void checkRecording() {
+		if (snapshot != null) {
+			throw new IllegalStateException("This buffer has been frozen.");
+		}
+	}
+
+	private void addInt(int pValue) {
+		if (numInts == ints.length) {
+			int[] i = new int[numInts * 2];
+			System.arraycopy(ints, 0, i, 0, numInts);
+			ints = i;
+		}
+		ints[numInts++] = pValue;
+	}
+
+	private void addString(String pValue) {
+		if (numStrings == strings.length) {
+			String[] s = new String[numStrings * 2];
+			System.arraycopy(strings, 0, s, 0, numStrings);
+			strings = s;
+		}
+		String value = pValue;
+		if (value != null) {
+			String interned = (String) internedStrings.get(value);
+			if (interned == null) {
+				internedStrings.put(value, value);
+			} else {
+				value = interned;
+			}
+		}
+		strings[numStrings++] = value;
+	}
+
+	private void addChars(int pType, char[] pChars, int pOffset, int pLen) {
+		checkRecording();
+		addInt(pType);
+		addInt(pLen);
+		if (numChars + pLen > chars.length) {
+			char[] c = new char[Math.max(chars.length * 2, numChars + pLen)];
+			System.arraycopy(chars, 0, c, 0, numChars);
+			chars = c;
+		}
+		System.arraycopy(pChars, pOffset, chars, numChars, pLen);
+		numChars += pLen;
+	}
+
+	public void setDocumentLocator(Locator pLocator) {
+		// Ignored, see the class documentation.
+	}
+
+	public void startDocument() throws SAXException {
+		checkRecording();
+		addInt(START_DOCUMENT);
+	}
+
+	public void endDocument() throws SAXException {
+		checkRecording();
+		addInt(END_DOCUMENT);
+	}
+
+	public void startPrefixMapping(String pPrefix, String pURI) throws SAXException {
+		checkRecording();
+		addInt(START_PREFIX_MAPPING);
+		addString(pPrefix);
+		addString(pURI);
+	}
+
+	public void endPrefixMapping(String pPrefix) throws SAXException {
+		checkRecording();
+		addInt(END_PREFIX_MAPPING);
+		addString(pPrefix);
+	}
+
+	public void startElement(String pNamespaceURI, String pLocalName, String pQName,
+			Attributes pAttrs) throws SAXException {
+		checkRecording();
+		int numAttrs = pAttrs == null ? 0 : pAttrs.getLength();
+		addInt(START_ELEMENT);
+		addInt(numAttrs);
+		addString(pNamespaceURI);
+		addString(pLocalName);
+		addString(pQName);
+		if (numAttrs > 0) {
+			if (numStrings + numAttrs*5 > strings.length) {
+				String[] s = new String[Math.max(strings.length * 2, numStrings + numAttrs*5)];
+				System.arraycopy(strings, 0, s, 0, numStrings);
+				strings = s;
+			}
+			int offset = numStrings;
+			for (int i = 0;  i < numAttrs;  i++) {
+				addString(pAttrs.getURI(i));
+				addString(pAttrs.getLocalName(i));
+				addString(pAttrs.getQName(i));
+				addString(pAttrs.getType(i));
+				addString(pAttrs.getValue(i));
+			}
+			if (numAttributes == attributes.length) {
+				Attributes[] a = new Attributes[numAttributes * 2];
+				System.arraycopy(attributes, 0, a, 0, numAttributes);
+				attributes = a;
+			}
+			attributes[numAttributes++] = new RecordedAttributes(strings, offset, numAttrs);
+		}
+	}
+
+	public void endElement(String pNamespaceURI, String pLocalName, String pQName)
+			throws SAXException {
+		checkRecording();
+		addInt(END_ELEMENT);
+		addString(pNamespaceURI);
+		addString(pLocalName);
+		addString(pQName);
+	}
+
+	public void characters(char[] pChars, int pOffset, int pLen) throws SAXException {
+		addChars(CHARACTERS, pChars, pOffset, pLen);
+	}
+
+	public void ignorableWhitespace(char[] pChars, int pOffset, int pLen) throws SAXException {
+		addChars(IGNORABLE_WHITESPACE, pChars, pOffset, pLen);
+	}
+
+	public void processingInstruction(String pTarget, String pData) throws SAXException {
+		checkRecording();
+		addInt(PROCESSING_INSTRUCTION);
+		addString(pTarget);
+		addString(pData);
+	}
+
+	public void skippedEntity(String pName) throws SAXException {
+		checkRecording();
+		addInt(SKIPPED_ENTITY);
+		addString(pName);
+	}
+
+	public void startDTD(String pName, String pPublicId, String pSystemId) throws SAXException {
+		checkRecording();
+		addInt(START_DTD);
+		addString(pName);
+		addString(pPublicId);
+		addString(pSystemId);
+	}
+
+	public void endDTD() throws SAXException {
+		checkRecording();
+		addInt(END_DTD);
+	}
+
+	public void startEntity(String pName) throws SAXException {
+		checkRecording();
+		addInt(START_ENTITY);
+		addString(pName);
+	}
+
+	public void endEntity(String pName) throws SAXException {
+		checkRecording();
+		addInt(END_ENTITY);
+		addString(pName);
+	}
+
+	public void startCDATA() throws SAXException {
+		checkRecording();
+		addInt(START_CDATA);
+	}
+
+	public void endCDATA() throws SAXException {
+		checkRecording();
+		addInt(END_CDATA);
+	}
+
+	public void comment(char[] pChars, int pOffset, int pLen) throws SAXException {
+		addChars(COMMENT, pChars, pOffset, pLen);
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2003, 2004  The Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ws.commons.serialize;
+
+
+/** A listener, which is notified by {@link XMLWriterImpl}, and
+ * {@link DOMSerializer} about their activity. The notifications
+ * are intended for collecting statistics, like the number of
+ * elements being written, or the time spent in writing to the
+ * target. If no listener is registered, then the writers don't
+ * collect any data. Implementations, which are shared by multiple
+ * writers, must be thread safe.<br>
+ * The time measurements use <code>System.nanoTime()</code>, so
+ * registering a listener requires Java 5.
+ * @see SerializationStatistics
+ */
+public interface SerializationListener {
+	/** Called by {@link XMLWriterImpl#endDocument()}, with the number
+	 * of items, which have been written since
+	 * {@link XMLWriterImpl#startDocument()}.
+	 * @param pElements Number of elements.
+	 * @param pAttributes Number of attributes, excluding namespace
+	 * declarations, which have been announced by
+	 * {@link org.xml.sax.ContentHandler#startPrefixMapping(String, String)}.
+	 * @param pCharacters Number of characters in element content,
+	 * and attribute values.
+	 * @param pEscapes Number of characters, which have been replaced
+	 * with entity references, like <code>&amp;amp;</code>.
+	 * @param pCharacterReferences Number of characters, which have
+	 * been replaced with character references, because they cannot
+	 * be encoded.
+	 */
+	void documentWritten(long pElements, long pAttributes, long pCharacters,
+			long pEscapes, long pCharacterReferences);
+
+	/** Called, whenever output has been written to the target.
+	 * @param pLength Number of bytes, or characters, if the target
+	 * is a {@link java.io.Writer}.
+	 * @param pNanos Time spent in writing, in nanoseconds.
+	 */
+	void targetWritten(int pLength, long pNanos);
+
+	/** Called, whenever the target has been flushed.
+	 * @param pNanos Time spent in flushing, in nanoseconds.
+	 */
+	void targetFlushed(long pNanos);
+
+	/** Called by {@link DOMSerializer#serialize(org.w3c.dom.Node, org.xml.sax.ContentHandler)}.
+	 * @param pNanos Time spent in serializing the node, including
+	 * the time spent by the target handler, in nanoseconds.
+	 */
+	void nodeSerialized(long pNanos);
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2003, 2004  The Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ws.commons.serialize;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/** A thread safe {@link SerializationListener}, which accumulates
+ * the notifications of any number of writers. The statistics are
+ * available via JMX, by registering the instance as a standard
+ * MBean:
+ * <pre>
+ *   SerializationStatistics stats = new SerializationStatistics();
+ *   ManagementFactory.getPlatformMBeanServer().registerMBean(stats,
+ *       new ObjectName("org.apache.ws.commons:type=SerializationStatistics"));
+ *   xmlWriter.setListener(stats);
+ *   domSerializer.setListener(stats);
+ * </pre>
+ * Requires Java 5.
+ */
+public class SerializationStatistics implements SerializationListener,
+		SerializationStatisticsMBean {
+	private final AtomicLong documents = new AtomicLong();
+	private final AtomicLong elements = new AtomicLong();
+	private final AtomicLong attributes = new AtomicLong();
+	private final AtomicLong characters = new AtomicLong();
+	private final AtomicLong escapedCharacters = new AtomicLong();
+	private final AtomicLong characterReferences = new AtomicLong();
+	private final AtomicLong bytesWritten = new AtomicLong();
+	private final AtomicLong writes = new AtomicLong();
+	private final AtomicLong writeNanos = new AtomicLong();
+	private final AtomicLong flushes = new AtomicLong();
+	private final AtomicLong flushNanos = new AtomicLong();
+	private final AtomicLong serializedNodes = new AtomicLong();
+	private final AtomicLong serializationNanos = new AtomicLong();
+
+	public void documentWritten(long pElements, long pAttributes, long pCharacters,
+			long pEscapes, long pCharacterReferences) {
+		documents.incrementAndGet();
+		elements.addAndGet(pElements);
+		attributes.addAndGet(pAttributes);
+		characters.addAndGet(pCharacters);
+		escapedCharacters.addAndGet(pEscapes);
+		characterReferences.addAndGet(pCharacterReferences);
+	}
+
+	public void targetWritten(int pLength, long pNanos) {
+		writes.incrementAndGet();
+		bytesWritten.addAndGet(pLength);
+		writeNanos.addAndGet(pNanos);
+	}
+
+	public void targetFlushed(long pNanos) {
+		flushes.incrementAndGet();
+		flushNanos.addAndGet(pNanos);
+	}
+
+	public void nodeSerialized(long pNanos) {
+		serializedNodes.incrementAndGet();
+		serializationNanos.addAndGet(pNanos);
+	}
+
+	public long getDocuments() { return documents.get(); }
+	public long getElements() { return elements.get(); }
+	public long getAttributes() { return attributes.get(); }
+	public long getCharacters() { return characters.get(); }
+	public long getEscapedCharacters() { return escapedCharacters.get(); }
+	public long getCharacterReferences() { return characterReferences.get(); }
+	public long getBytesWritten() { return bytesWritten.get(); }
+	public long getWrites() { return writes.get(); }
+	public long getWriteNanos() { return writeNanos.get(); }
+	public long getFlushes() { return flushes.get(); }
+	public long getFlushNanos() { return flushNanos.get(); }
+	public long getSerializedNodes() { return serializedNodes.get(); }
+	public long getSerializationNanos() { return serializationNanos.get(); }
+
+	public void reset() {
+		documents.set(0);
+		elements.set(0);
+		attributes.set(0);
+		characters.set(0);
+		escapedCharacters.set(0);
+		characterReferences.set(0);
+		bytesWritten.set(0);
+		writes.set(0);
+		writeNanos.set(0);
+		flushes.set(0);
+		flushNanos.set(0);
+		serializedNodes.set(0);
+		serializationNanos.set(0);
+	}
+}
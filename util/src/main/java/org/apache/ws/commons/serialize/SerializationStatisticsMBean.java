@@ -0,0 +1,97 @@
+/*
+ * Copyright 2003, 2004  The Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ws.commons.serialize;
+
+
+/** The management interface of {@link SerializationStatistics}.
+ * Requires Java 5.
+ */
+public interface SerializationStatisticsMBean {
+	/** Returns the number of documents, which have been written.
+	 * @return Number of calls to {@link XMLWriterImpl#endDocument()}.
+	 */
+	long getDocuments();
+
+	/** Returns the number of elements, which have been written.
+	 * @return Number of elements.
+	 */
+	long getElements();
+
+	/** Returns the number of attributes, which have been written.
+	 * @return Number of attributes.
+	 */
+	long getAttributes();
+
+	/** Returns the number of characters in element content, and
+	 * attribute values, which have been written.
+	 * @return Number of characters.
+	 */
+	long getCharacters();
+
+	/** Returns the number of characters, which have been replaced
+	 * with entity references.
+	 * @return Number of escaped characters.
+	 */
+	long getEscapedCharacters();
+
+	/** Returns the number of characters, which have been replaced
+	 * with character references.
+	 * @return Number of character references.
+	 */
+	long getCharacterReferences();
+
+	/** Returns the number of bytes, or characters, if the target is
+	 * a {@link java.io.Writer}, which have been written to the target.
+	 * @return Number of bytes written.
+	 */
+	long getBytesWritten();
+
+	/** Returns the number of write operations on the target.
+	 * @return Number of write operations.
+	 */
+	long getWrites();
+
+	/** Returns the time spent in writing to the target.
+	 * @return Time in nanoseconds.
+	 */
+	long getWriteNanos();
+
+	/** Returns the number of flush operations on the target.
+	 * @return Number of flush operations.
+	 */
+	long getFlushes();
+
+	/** Returns the time spent in flushing the target.
+	 * @return Time in nanoseconds.
+	 */
+	long getFlushNanos();
+
+	/** Returns the number of nodes, which have been serialized by
+	 * a {@link DOMSerializer}.
+	 * @return Number of serialized nodes.
+	 */
+	long getSerializedNodes();
+
+	/** Returns the time spent by a {@link DOMSerializer}, including
+	 * the time spent by the target handler.
+	 * @return Time in nanoseconds.
+	 */
+	long getSerializationNanos();
+
+	/** Resets all counters to zero.
+	 */
+	void reset();
+}
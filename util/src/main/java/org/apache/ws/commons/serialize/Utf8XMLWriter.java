@@ -0,0 +1,338 @@
+/*
+ * Copyright 2003, 2004  The Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ws.commons.serialize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import org.xml.sax.SAXException;
+
+
+/** An implementation of {@link XMLWriter}, which is writing
+ * UTF-8 encoded bytes to an {@link OutputStream}, rather than
+ * characters to a {@link Writer}. Escaping and encoding are done
+ * in a single pass, directly into the writers byte buffer, so
+ * there is no need for an {@link java.io.OutputStreamWriter}.
+ * Works with Java 1.2 and later.
+ */
+public class Utf8XMLWriter extends XMLWriterImpl {
+	private static final int CHUNK_SIZE = 256;
+	private static final byte REPLACEMENT = (byte) '?';
+
+	private OutputStream out;
+	private byte[] bytes;
+	private int bytePos;
+	private char[] chars;
+	private char highSurrogate;
+
+	/** Sets the target {@link OutputStream}.
+	 * @param pStream The target stream.
+	 */
+	public void setOutputStream(OutputStream pStream) {
+		out = pStream;
+	}
+
+	/** Returns the target {@link OutputStream}.
+	 * @return The target stream.
+	 */
+	public OutputStream getOutputStream() {
+		return out;
+	}
+
+	/** Not supported: The target must be an {@link OutputStream}.
+	 * @see #setOutputStream(OutputStream)
+	 */
+	public void setWriter(Writer pWriter) {
+		throw new UnsupportedOperationException("A " + getClass().getName()
+				+ " requires an OutputStream as target.");
+	}
+
+	/** Sets the writers encoding, which must be either null,
+	 * or UTF-8.
+	 */
+	public void setEncoding(String pEncoding) {
+		if (pEncoding != null  &&  !"UTF-8".equalsIgnoreCase(pEncoding)
+				&&  !"UTF8".equalsIgnoreCase(pEncoding)) {
+			throw new IllegalArgumentException("Unsupported encoding: " + pEncoding
+					+ " (Expected UTF-8)");
+		}
+		super.setEncoding(pEncoding);
+	}
+
+	public void setBufferSize(int pSize) {
+		if (bytePos > 0) {
+			throw new IllegalStateException("The buffer size cannot be changed while the buffer contains data.");
+		}
+		super.setBufferSize(pSize);
+		if (bytes != null  &&  bytes.length != pSize) {
+			bytes = null;
+		}
+	}
+
+	/** Returns true: UTF-8 can encode any character.
+	 */
+	public boolean canEncode(char c) {
+		return true;
+	}
+
+	public void endDocument() throws SAXException {
+		if (highSurrogate != 0) {
+			// Unpaired high surrogate at the end of the document
+			try {
+				highSurrogate = 0;
+				write((char) REPLACEMENT);
+			} catch (IOException e) {
+				throw new SAXException(e);
+			}
+		}
+		super.endDocument();
+	}
+
+	public void reset() {
+		super.reset();
+		out = null;
+		bytePos = 0;
+		highSurrogate = 0;
+	}
+
+	protected boolean hasTarget() {
+		return out != null;
+	}
+
+	protected int getBufferedLength() {
+		return bytePos;
+	}
+
+	private byte[] getBytes() {
+		if (bytes == null) {
+			bytes = new byte[Math.max(getBufferSize(), 4)];
+		}
+		return bytes;
+	}
+
+	protected void flushBuffer() throws IOException {
+		if (bytePos > 0) {
+			int len = bytePos;
+			bytePos = 0;
+			writeBytes(bytes, 0, len);
+		}
+	}
+
+	protected void flushTarget() throws IOException {
+		if (out != null) {
+			SerializationListener listener = getListener();
+			if (listener == null) {
+				out.flush();
+			} else {
+				long time = System.nanoTime();
+				out.flush();
+				listener.targetFlushed(System.nanoTime() - time);
+			}
+		}
+	}
+
+	/** Called for writing the encoded bytes to the target.
+	 * @param pBytes The buffer being written.
+	 * @param pOffset Offset of the first byte being written.
+	 * @param pLen Number of bytes being written.
+	 * @throws IOException Writing to the target failed.
+	 */
+	protected void writeBytes(byte[] pBytes, int pOffset, int pLen) throws IOException {
+		if (out != null) {
+			targetWritten(pLen);
+			SerializationListener listener = getListener();
+			if (listener == null) {
+				out.write(pBytes, pOffset, pLen);
+			} else {
+				long time = System.nanoTime();
+				out.write(pBytes, pOffset, pLen);
+				listener.targetWritten(pLen, System.nanoTime() - time);
+			}
+		}
+	}
+
+	protected void writeStartTag(String pQName) throws IOException {
+		if (highSurrogate == 0) {
+			copyBytes(getName(pQName).getUtf8StartTag());
+		} else {
+			super.writeStartTag(pQName);
+		}
+	}
+
+	protected void writeEndTag(String pQName) throws IOException {
+		if (highSurrogate == 0) {
+			copyBytes(getName(pQName).getUtf8EndTag());
+		} else {
+			super.writeEndTag(pQName);
+		}
+	}
+
+	protected void writeAttributeName(String pQName) throws IOException {
+		if (highSurrogate == 0) {
+			copyBytes(getName(pQName).getUtf8Attribute());
+		} else {
+			super.writeAttributeName(pQName);
+		}
+	}
+
+	protected void writeFragment(PreSerializedFragment pFragment, boolean pHead) throws IOException {
+		if (highSurrogate == 0) {
+			byte[] b = pFragment.getUtf8Bytes();
+			int insertPos = pFragment.getUtf8InsertPos();
+			if (pHead) {
+				copyBytes(b, 0, insertPos);
+			} else {
+				copyBytes(b, insertPos, b.length - insertPos);
+			}
+		} else {
+			super.writeFragment(pFragment, pHead);
+		}
+	}
+
+	private void copyBytes(byte[] pBytes) throws IOException {
+		copyBytes(pBytes, 0, pBytes.length);
+	}
+
+	/** Copies already encoded bytes into the buffer. Large arrays
+	 * are written to the target directly.
+	 */
+	private void copyBytes(byte[] pBytes, int pOffset, int pLen) throws IOException {
+		byte[] buf = getBytes();
+		if (pLen >= buf.length) {
+			flushBuffer();
+			writeBytes(pBytes, pOffset, pLen);
+			return;
+		}
+		int len = pLen;
+		int offset = pOffset;
+		while (len > 0) {
+			int free = buf.length - bytePos;
+			if (free == 0) {
+				flushBuffer();
+				free = buf.length;
+			}
+			int n = len < free ? len : free;
+			System.arraycopy(pBytes, offset, buf, bytePos, n);
+			bytePos += n;
+			offset += n;
+			len -= n;
+		}
+	}
+
+	protected void write(char pChar) throws IOException {
+		byte[] buf = getBytes();
+		if (pChar < 0x80  &&  highSurrogate == 0) {
+			if (bytePos == buf.length) {
+				flushBuffer();
+			}
+			buf[bytePos++] = (byte) pChar;
+		} else {
+			if (buf.length - bytePos < 4) {
+				flushBuffer();
+			}
+			bytePos = encode(pChar, buf, bytePos);
+		}
+	}
+
+	protected void write(String pString) throws IOException {
+		if (chars == null) {
+			chars = new char[CHUNK_SIZE];
+		}
+		int len = pString.length();
+		for (int offset = 0;  offset < len;  ) {
+			int n = len - offset;
+			if (n > chars.length) {
+				n = chars.length;
+			}
+			pString.getChars(offset, offset+n, chars, 0);
+			write(chars, 0, n);
+			offset += n;
+		}
+	}
+
+	protected void write(char[] pChars, int pOffset, int pLen) throws IOException {
+		byte[] buf = getBytes();
+		int pos = bytePos;
+		int i = pOffset;
+		int end = pOffset + pLen;
+		while (i < end) {
+			if (highSurrogate == 0) {
+				int limit = i + (buf.length - pos);
+				if (limit > end) {
+					limit = end;
+				}
+				while (i < limit) {
+					char c = pChars[i];
+					if (c >= 0x80) {
+						break;
+					}
+					buf[pos++] = (byte) c;
+					++i;
+				}
+				if (i == end) {
+					break;
+				}
+			}
+			if (buf.length - pos < 4) {
+				bytePos = pos;
+				flushBuffer();
+				pos = 0;
+				continue;
+			}
+			pos = encode(pChars[i++], buf, pos);
+		}
+		bytePos = pos;
+	}
+
+	/** Encodes a single character, taking care of a pending high
+	 * surrogate. The buffer must have room for at least four bytes.
+	 */
+	private int encode(char c, byte[] pBuffer, int pPos) {
+		int pos = pPos;
+		if (highSurrogate != 0) {
+			char high = highSurrogate;
+			highSurrogate = 0;
+			if (c >= '\udc00'  &&  c <= '\udfff') {
+				int codePoint = ((high - 0xd800) << 10) + (c - 0xdc00) + 0x10000;
+				pBuffer[pos++] = (byte) (0xf0 | (codePoint >> 18));
+				pBuffer[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+				pBuffer[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+				pBuffer[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+				return pos;
+			}
+			// Unpaired high surrogate. The buffer has room for the
+			// replacement, and up to three more bytes.
+			pBuffer[pos++] = REPLACEMENT;
+		}
+		if (c < 0x80) {
+			pBuffer[pos++] = (byte) c;
+		} else if (c < 0x800) {
+			pBuffer[pos++] = (byte) (0xc0 | (c >> 6));
+			pBuffer[pos++] = (byte) (0x80 | (c & 0x3f));
+		} else if (c >= '\ud800'  &&  c <= '\udbff') {
+			highSurrogate = c;
+		} else if (c >= '\udc00'  &&  c <= '\udfff') {
+			// Unpaired low surrogate
+			pBuffer[pos++] = REPLACEMENT;
+		} else {
+			pBuffer[pos++] = (byte) (0xe0 | (c >> 12));
+			pBuffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+			pBuffer[pos++] = (byte) (0x80 | (c & 0x3f));
+		}
+		return pos;
+	}
+}
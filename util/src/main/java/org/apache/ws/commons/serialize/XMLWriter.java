@@ -15,8 +15,12 @@
  */
 package org.apache.ws.commons.serialize;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.io.Writer;
 
+import org.xml.sax.SAXException;
+
 
 /** A simple serializer for XML documents, which is writing to
  * an instance of {@link java.io.Writer}.
@@ -129,4 +133,166 @@ public interface XMLWriter extends org.xml.sax.ContentHandler {
 	 * @return True, if a flush should be done. Defaults to false.
 	 */
 	boolean isFlushing();
+
+	/** Sets, whether characters, which cannot be encoded, are
+	 * written as hexadecimal character references (&amp;#xe4;),
+	 * or as decimal character references (&amp;#228;).
+	 * @param pHex True for hexadecimal references. Defaults to false.
+	 */
+	void setHexCharacterReferences(boolean pHex);
+
+	/** Returns, whether characters, which cannot be encoded, are
+	 * written as hexadecimal character references (&amp;#xe4;),
+	 * or as decimal character references (&amp;#228;).
+	 * @return True for hexadecimal references. Defaults to false.
+	 */
+	boolean isHexCharacterReferences();
+
+	/** Sets the size of the writers internal buffer. The target
+	 * is invoked only, if the buffer is full, if {@link #flush()}
+	 * is called, or after writing a top level event, for example
+	 * the end of the document element.
+	 * @param pSize The buffer size, by default
+	 * {@link XMLWriterImpl#DEFAULT_BUFFER_SIZE}.
+	 * @throws IllegalStateException The buffer contains data,
+	 * which hasn't yet been written to the target.
+	 */
+	void setBufferSize(int pSize);
+
+	/** Returns the size of the writers internal buffer.
+	 * @return The buffer size, by default
+	 * {@link XMLWriterImpl#DEFAULT_BUFFER_SIZE}.
+	 */
+	int getBufferSize();
+
+	/** Writes the contents of the internal buffer to the target
+	 * and flushes the target.
+	 * @throws IOException Writing to the target failed.
+	 */
+	void flush() throws IOException;
+
+	/** Starts a new element, without attributes. Unlike
+	 * {@link org.xml.sax.ContentHandler#startElement(String, String, String, org.xml.sax.Attributes)},
+	 * this doesn't require an instance of {@link org.xml.sax.Attributes}:
+	 * Attributes may be added by calling {@link #writeAttribute(String, String)}
+	 * immediately after this method. Namespace declarations, which have been
+	 * announced by {@link org.xml.sax.ContentHandler#startPrefixMapping(String, String)},
+	 * are written as well.
+	 * @param pQName The elements qualified name.
+	 * @throws SAXException Writing to the target failed.
+	 */
+	void writeStartElement(String pQName) throws SAXException;
+
+	/** Adds an attribute to the current start tag.
+	 * @param pQName The attributes qualified name.
+	 * @param pValue The attribute value, which is being escaped.
+	 * @throws SAXException Writing to the target failed.
+	 * @throws IllegalStateException The start tag has already been
+	 * terminated by writing content.
+	 */
+	void writeAttribute(String pQName, String pValue) throws SAXException;
+
+	/** Writes element content. Equivalent to
+	 * {@link org.xml.sax.ContentHandler#characters(char[], int, int)}.
+	 * @param pChars The characters being written.
+	 * @param pOffset Index of the first character being written.
+	 * @param pLen Number of characters being written.
+	 * @throws SAXException Writing to the target failed.
+	 */
+	void writeCharacters(char[] pChars, int pOffset, int pLen) throws SAXException;
+
+	/** Writes element content, which is read from the given {@link Reader},
+	 * until the end of the stream is reached. The characters are passed
+	 * to the escaping engine in chunks of a fixed size, so that the memory
+	 * usage doesn't depend on the length of the content. The reader isn't
+	 * closed.
+	 * @param pReader The reader, which supplies the content.
+	 * @throws SAXException Writing to the target failed.
+	 * @throws IOException Reading from <code>pReader</code> failed.
+	 */
+	void writeCharacters(Reader pReader) throws SAXException, IOException;
+
+	/** Writes element content, which is taken from the given
+	 * {@link CharSequence}. The characters are passed to the escaping
+	 * engine in chunks of a fixed size, so that no array holding the
+	 * complete content is required. Requires Java 1.4.
+	 * @param pChars The content being written.
+	 * @throws SAXException Writing to the target failed.
+	 */
+	void writeCharacters(CharSequence pChars) throws SAXException;
+
+	/** Writes an <code>xs:int</code> value as element content, without
+	 * creating any objects.
+	 * @param pValue The value being written.
+	 * @throws SAXException Writing to the target failed.
+	 */
+	void writeInt(int pValue) throws SAXException;
+
+	/** Writes an <code>xs:long</code> value as element content, without
+	 * creating any objects.
+	 * @param pValue The value being written.
+	 * @throws SAXException Writing to the target failed.
+	 */
+	void writeLong(long pValue) throws SAXException;
+
+	/** Writes an <code>xs:double</code> value as element content. The
+	 * value is written in the same format as {@link Double#toString(double)},
+	 * which is the shortest form, that parses back to the same value,
+	 * except that infinity is written as <code>INF</code>, or
+	 * <code>-INF</code>.
+	 * @param pValue The value being written.
+	 * @throws SAXException Writing to the target failed.
+	 */
+	void writeDouble(double pValue) throws SAXException;
+
+	/** Writes an <code>xs:boolean</code> value as element content.
+	 * @param pValue The value being written.
+	 * @throws SAXException Writing to the target failed.
+	 */
+	void writeBoolean(boolean pValue) throws SAXException;
+
+	/** Writes an <code>xs:dateTime</code> value as element content,
+	 * without creating any objects. The format is the same as that of
+	 * {@link org.apache.ws.commons.util.XsDateTimeFormat}, except that
+	 * the proleptic Gregorian calendar is used for all dates.
+	 * @param pMillis The time in milliseconds since 1970-01-01T00:00:00Z.
+	 * @param pOffsetMinutes The time zone offset in minutes, between
+	 * -14 and +14 hours. For example, 60 for UTC+01:00.
+	 * @throws SAXException Writing to the target failed.
+	 * @throws IllegalArgumentException The time zone offset is invalid.
+	 */
+	void writeDateTime(long pMillis, int pOffsetMinutes) throws SAXException;
+
+	/** Terminates the innermost open element, regardless of whether
+	 * it has been started by {@link #writeStartElement(String)}, or by
+	 * {@link org.xml.sax.ContentHandler#startElement(String, String, String, org.xml.sax.Attributes)}.
+	 * @throws SAXException Writing to the target failed.
+	 * @throws IllegalStateException There is no open element.
+	 */
+	void writeEndElement() throws SAXException;
+
+	/** Writes a fragment, which has been serialized in advance, as
+	 * element content. The current start tag is terminated, if necessary,
+	 * and, if indenting, the fragment starts on a new line. Namespace
+	 * declarations, which have been announced by
+	 * {@link org.xml.sax.ContentHandler#startPrefixMapping(String, String)},
+	 * are added to the fragments root element.
+	 * Writers, which must transform their output, like
+	 * {@link C14NXMLWriter}, don't support this method.
+	 * @param pFragment The fragment being written.
+	 * @throws SAXException Writing to the target failed, or the
+	 * fragment contains characters, which cannot be encoded.
+	 * @throws UnsupportedOperationException The writer cannot
+	 * write pre-serialized fragments.
+	 */
+	void writeFragment(PreSerializedFragment pFragment) throws SAXException;
+
+	/** Discards the current document, and returns the writer to the
+	 * state of a newly created instance, so that it may be reused,
+	 * for example by an {@link XMLWriterPool}. Output, which is still
+	 * held in the internal buffer, the locator, and the target are
+	 * discarded. The configuration, like encoding, or indentation,
+	 * and the internal buffers are kept.
+	 */
+	void reset();
 }
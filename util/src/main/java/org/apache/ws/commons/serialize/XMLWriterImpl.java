@@ -18,28 +18,154 @@ package org.apache.ws.commons.serialize;
 import org.xml.sax.Attributes;
 import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.io.Writer;
 
 import javax.xml.XMLConstants;
 
 
 /** Default implementation of {@link XMLWriter}. Works with Java 1.2 and
- * later.
+ * later. As a {@link LexicalHandler}, the writer also emits CDATA
+ * sections and comments.
  */
-public class XMLWriterImpl implements XMLWriter {
+public class XMLWriterImpl implements XMLWriter, LexicalHandler {
 	private static final int STATE_OUTSIDE = 0;
 	private static final int STATE_IN_START_ELEMENT = 1;
 	private static final int STATE_IN_ELEMENT = 2;
 
+	/** Default size of the internal output buffer, in characters.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	/** The character is written as is.
+	 */
+	private static final byte ESC_NONE = 0;
+	/** The character is written as is, if {@link #canEncode(char)}
+	 * returns true, or as a character reference otherwise.
+	 */
+	private static final byte ESC_CHECK = 1;
+	/** The character is replaced with an entity reference.
+	 */
+	private static final byte ESC_ENTITY = 2;
+	/** Escaping classes of the ASCII characters in text.
+	 */
+	private static final byte[] TEXT_ESCAPES = new byte[128];
+	/** Escaping classes of the ASCII characters in attribute values.
+	 */
+	private static final byte[] ATTRIBUTE_ESCAPES = new byte[128];
+	/** Entity references of the characters with class {@link #ESC_ENTITY}.
+	 */
+	private static final String[] ENTITIES = new String[128];
+	private static final int SCRATCH_SIZE = 512;
+	/** Replaces unpaired surrogates, like {@link Utf8XMLWriter} does.
+	 */
+	private static final char REPLACEMENT = '?';
+	/** Tens, and ones digits of the numbers 0 .. 99.
+	 */
+	private static final char[] DIGIT_TENS = new char[100], DIGIT_ONES = new char[100];
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final char[] TRUE = "true".toCharArray(), FALSE = "false".toCharArray();
+	private static final char[] NAN = "NaN".toCharArray(), INF = "-INF".toCharArray();
+	private static final char[] ZERO = "-0.0".toCharArray();
+	/** The powers of ten, which are exactly representable as a double.
+	 */
+	private static final double[] POWERS_OF_TEN = new double[18];
+	/** Values with an absolute value of 2^53, or more, are not necessarily
+	 * exactly representable as a double.
+	 */
+	private static final double MAX_EXACT_LONG = 9007199254740992.0;
+	private static final long MILLIS_PER_DAY = 24*60*60*1000;
+	static {
+		for (int i = 0;  i < 100;  i++) {
+			DIGIT_TENS[i] = (char) ('0' + i / 10);
+			DIGIT_ONES[i] = (char) ('0' + i % 10);
+		}
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1;  i < POWERS_OF_TEN.length;  i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1] * 10;
+		}
+		for (int i = 0;  i < 128;  i++) {
+			byte esc = (i >= ' '  &&  i < 0x7f) ? ESC_NONE : ESC_CHECK;
+			TEXT_ESCAPES[i] = esc;
+			ATTRIBUTE_ESCAPES[i] = esc;
+		}
+		TEXT_ESCAPES['\n'] = ESC_NONE;
+		TEXT_ESCAPES['\r'] = ESC_NONE;
+		TEXT_ESCAPES['\t'] = ESC_NONE;
+		TEXT_ESCAPES['&'] = ESC_ENTITY;
+		TEXT_ESCAPES['<'] = ESC_ENTITY;
+		TEXT_ESCAPES['>'] = ESC_ENTITY;
+		ATTRIBUTE_ESCAPES['&'] = ESC_ENTITY;
+		ATTRIBUTE_ESCAPES['<'] = ESC_ENTITY;
+		ATTRIBUTE_ESCAPES['>'] = ESC_ENTITY;
+		ATTRIBUTE_ESCAPES['\''] = ESC_ENTITY;
+		ATTRIBUTE_ESCAPES['"'] = ESC_ENTITY;
+		ENTITIES['&'] = "&amp;";
+		ENTITIES['<'] = "&lt;";
+		ENTITIES['>'] = "&gt;";
+		ENTITIES['\''] = "&apos;";
+		ENTITIES['"'] = "&quot;";
+	}
+
 	private String encoding, indentString, lineFeed;
 	private Writer w;
 	private Locator l;
-	private java.util.Map delayedPrefixes;
+	/** Namespace declarations, which have been announced by
+	 * {@link #startPrefixMapping(String, String)}, but not yet
+	 * written. Reused for all elements, and kept in the order of
+	 * the <code>startPrefixMapping</code> events.
+	 */
+	private String[] delayedPrefixes, delayedURIs;
+	private int numDelayedPrefixes;
+	/** Namespace declarations, which have been written into the
+	 * current start tag by {@link #writeStartElement(String)}. The
+	 * arrays are swapped with the arrays of the delayed declarations.
+	 */
+	private String[] writtenPrefixes, writtenURIs;
+	private int numWrittenPrefixes;
+	/** The qualified names of the currently open elements.
+	 */
+	private String[] elementNames;
+	private NameCache names;
 	int curIndent = 0;
 	private int state;
-	private boolean declarating, indenting, flushing;
+	private int depth;
+	private boolean declarating, indenting, flushing, hexCharacterReferences;
+	private boolean inCDATA;
+	/** Number of consecutive ']' characters at the end of the
+	 * current CDATA section.
+	 */
+	private int cdataBrackets;
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private char[] buffer;
+	private int bufferPos;
+	private char[] scratch;
+	private final char[] characterReference = new char[12];
+	/** Buffer for formatting typed values, large enough for any
+	 * <code>xs:long</code>, or <code>xs:dateTime</code>.
+	 */
+	private final char[] value = new char[40];
+	/** The line feed, followed by the indentation string, repeated
+	 * for as many levels as required so far. The indentation of a
+	 * given level is a prefix of this array.
+	 */
+	private char[] indentation;
+	private SerializationListener listener;
+	/** Counters, which are maintained only, if a listener is registered.
+	 */
+	private long numElements, numAttributes, numCharacters, numEscapes, numCharacterReferences;
+	private int flushDepth, flushThreshold;
+	private long maxFlushDelay;
+	/** Length of the output, which has been written to the target
+	 * since the last flush.
+	 */
+	private long unflushed;
+	/** Time of the first event after the last flush, or 0.
+	 */
+	private long pendingSince;
 
 
 	public void setEncoding(String pEncoding) { encoding = pEncoding; }
@@ -48,14 +174,111 @@ public class XMLWriterImpl implements XMLWriter {
 	public boolean isDeclarating() { return declarating; }
 	public void setIndenting(boolean pIndenting) { indenting = pIndenting; }
 	public boolean isIndenting() { return indenting; }
-	public void setIndentString(String pIndentString) { indentString = pIndentString; }
+	public void setIndentString(String pIndentString) {
+		indentString = pIndentString;
+		indentation = null;
+	}
 	public String getIndentString() { return indentString; }
-	public void setLineFeed(String pLineFeed) { lineFeed = pLineFeed; }
+	public void setLineFeed(String pLineFeed) {
+		lineFeed = pLineFeed;
+		indentation = null;
+	}
 	public String getLineFeed() { return lineFeed; }
 	public void setFlushing(boolean pFlushing) { flushing = pFlushing; }
 	public boolean isFlushing() { return flushing; }
 
-	/** <p>Sets the JaxbXMLSerializers Writer.</p>
+	/** Sets, whether the output is flushed after the end tag of an
+	 * element on the given nesting level, or above. For example, a
+	 * value of 2 flushes every child of the document element, which
+	 * is useful for streaming a sequence of records within a single
+	 * document.
+	 * @param pDepth The nesting level, where 1 is the document element,
+	 * or 0 (default) for not flushing after end tags.
+	 */
+	public void setFlushDepth(int pDepth) {
+		if (pDepth < 0) {
+			throw new IllegalArgumentException("Invalid flush depth: " + pDepth);
+		}
+		flushDepth = pDepth;
+	}
+	/** Returns, whether the output is flushed after the end tag of an
+	 * element on the given nesting level, or above.
+	 * @return The nesting level, where 1 is the document element,
+	 * or 0 (default) for not flushing after end tags.
+	 */
+	public int getFlushDepth() { return flushDepth; }
+
+	/** Sets, whether the output is flushed, as soon as the given amount
+	 * of output is pending. The threshold is checked after any element,
+	 * character data, or other top level event.
+	 * @param pThreshold The number of bytes (characters, if the target is
+	 * a {@link Writer}), or 0 (default) for not flushing by size.
+	 */
+	public void setFlushThreshold(int pThreshold) {
+		if (pThreshold < 0) {
+			throw new IllegalArgumentException("Invalid flush threshold: " + pThreshold);
+		}
+		flushThreshold = pThreshold;
+	}
+	/** Returns, whether the output is flushed, as soon as the given amount
+	 * of output is pending.
+	 * @return The number of bytes (characters, if the target is a
+	 * {@link Writer}), or 0 (default) for not flushing by size.
+	 */
+	public int getFlushThreshold() { return flushThreshold; }
+
+	/** Sets the maximum time, for which output may be held back. The
+	 * delay is checked after any element, character data, or other top
+	 * level event, so it is not applied while the writer is idle.
+	 * Writers aren't thread safe, so an idle writer must be flushed by
+	 * the thread, which is producing the events.
+	 * @param pMillis The maximum delay in milliseconds, or 0 (default)
+	 * for not flushing by time.
+	 */
+	public void setMaxFlushDelay(long pMillis) {
+		if (pMillis < 0) {
+			throw new IllegalArgumentException("Invalid flush delay: " + pMillis);
+		}
+		maxFlushDelay = pMillis;
+		pendingSince = 0;
+	}
+	/** Returns the maximum time, for which output may be held back.
+	 * @return The maximum delay in milliseconds, or 0 (default) for
+	 * not flushing by time.
+	 */
+	public long getMaxFlushDelay() { return maxFlushDelay; }
+
+	public void setHexCharacterReferences(boolean pHex) { hexCharacterReferences = pHex; }
+	public boolean isHexCharacterReferences() { return hexCharacterReferences; }
+
+	/** Sets a listener, which is notified about the writers activity.
+	 * Requires Java 5, because the listener receives time measurements.
+	 * @param pListener The listener, or null (default) for not
+	 * collecting any data.
+	 */
+	public void setListener(SerializationListener pListener) { listener = pListener; }
+	/** Returns the listener, which is notified about the writers activity.
+	 * @return The listener, or null (default), if no data is being collected.
+	 */
+	public SerializationListener getListener() { return listener; }
+
+	public void setBufferSize(int pSize) {
+		if (pSize < 1) {
+			throw new IllegalArgumentException("Invalid buffer size: " + pSize);
+		}
+		if (bufferPos > 0) {
+			throw new IllegalStateException("The buffer size cannot be changed while the buffer contains data.");
+		}
+		if (pSize != bufferSize) {
+			bufferSize = pSize;
+			buffer = null;
+		}
+	}
+	public int getBufferSize() { return bufferSize; }
+
+	/** <p>Sets the JaxbXMLSerializers Writer. Characters, which are
+	 * still held in the internal buffer, will be written to the new
+	 * writer.</p>
 	 */
 	public void setWriter(Writer pWriter) {
 		w = pWriter;
@@ -89,18 +312,26 @@ public class XMLWriterImpl implements XMLWriter {
 	 */
 	public void startPrefixMapping(String prefix, String namespaceURI)
 	throws SAXException {
-		if (delayedPrefixes == null) {
-			delayedPrefixes = new java.util.HashMap();
+		if ("".equals(prefix)  &&  namespaceURI.equals(prefix)) {
+			return;
 		}
-		if ("".equals(prefix)) {
-			if (namespaceURI.equals(prefix)) {
-				return;
+		int i = indexOfDelayedPrefix(prefix);
+		if (i == -1) {
+			if (delayedPrefixes == null) {
+				delayedPrefixes = new String[8];
+				delayedURIs = new String[8];
+			} else if (numDelayedPrefixes == delayedPrefixes.length) {
+				String[] prefixes = new String[numDelayedPrefixes * 2];
+				System.arraycopy(delayedPrefixes, 0, prefixes, 0, numDelayedPrefixes);
+				delayedPrefixes = prefixes;
+				String[] uris = new String[numDelayedPrefixes * 2];
+				System.arraycopy(delayedURIs, 0, uris, 0, numDelayedPrefixes);
+				delayedURIs = uris;
 			}
-			prefix = XMLConstants.XMLNS_ATTRIBUTE;
-		} else {
-			prefix = XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix;
+			i = numDelayedPrefixes++;
+			delayedPrefixes[i] = prefix;
 		}
-		delayedPrefixes.put(prefix, namespaceURI);
+		delayedURIs[i] = namespaceURI;
 	}
 	
 	/** <p>Terminates use of a namespace prefix.</p>
@@ -109,39 +340,154 @@ public class XMLWriterImpl implements XMLWriter {
 	 * @throws SAXException Not actually thrown, just for compliance to the interface specification.
 	 */
 	public void endPrefixMapping(String prefix) throws SAXException {
-		if (delayedPrefixes != null) {
-			if ("".equals(prefix)) {
-				prefix = XMLConstants.XMLNS_ATTRIBUTE;
-			} else {
-				prefix = XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix;
+		int i = indexOfDelayedPrefix(prefix);
+		if (i != -1) {
+			removeDelayedPrefix(i);
+		}
+	}
+
+	private int indexOfDelayedPrefix(String pPrefix) {
+		for (int i = 0;  i < numDelayedPrefixes;  i++) {
+			if (pPrefix.equals(delayedPrefixes[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void removeDelayedPrefix(int pIndex) {
+		int num = --numDelayedPrefixes - pIndex;
+		if (num > 0) {
+			System.arraycopy(delayedPrefixes, pIndex+1, delayedPrefixes, pIndex, num);
+			System.arraycopy(delayedURIs, pIndex+1, delayedURIs, pIndex, num);
+		}
+		delayedPrefixes[numDelayedPrefixes] = null;
+		delayedURIs[numDelayedPrefixes] = null;
+	}
+
+	private void clearDelayedPrefixes() {
+		for (int i = 0;  i < numDelayedPrefixes;  i++) {
+			delayedPrefixes[i] = null;
+			delayedURIs[i] = null;
+		}
+		numDelayedPrefixes = 0;
+	}
+
+	/** Called for an attribute, which is written by
+	 * {@link #startElement(String, String, String, Attributes)}:
+	 * If the attribute is a namespace declaration, then the
+	 * corresponding delayed declaration is dropped.
+	 */
+	private void removeDelayedPrefix(String pQName) {
+		if (pQName.startsWith(XMLConstants.XMLNS_ATTRIBUTE)) {
+			int len = pQName.length();
+			int xmlnsLen = XMLConstants.XMLNS_ATTRIBUTE.length();
+			if (len == xmlnsLen) {
+				int i = indexOfDelayedPrefix("");
+				if (i != -1) {
+					removeDelayedPrefix(i);
+				}
+			} else if (pQName.charAt(xmlnsLen) == ':') {
+				int prefixLen = len - xmlnsLen - 1;
+				for (int i = 0;  i < numDelayedPrefixes;  i++) {
+					String prefix = delayedPrefixes[i];
+					if (prefix.length() == prefixLen
+							&&  pQName.regionMatches(xmlnsLen+1, prefix, 0, prefixLen)) {
+						removeDelayedPrefix(i);
+						break;
+					}
+				}
 			}
-			delayedPrefixes.remove(prefix);
 		}
 	}
 	
-	/** <p>Starts a document.</p>
-	 * @throws SAXException Not actually thrown, just for compliance to the interface specification.
+	/** Called for an attribute, which is written by
+	 * {@link #writeAttribute(String, String)}: Returns, whether the
+	 * attribute is a namespace declaration, which has already been
+	 * written by {@link #writeStartElement(String)}.
+	 * @throws IllegalStateException The attribute declares the same
+	 * prefix with a different namespace URI.
 	 */
-	public void startDocument() throws SAXException {
-		if (delayedPrefixes != null) {
-			delayedPrefixes.clear();
+	private boolean isWrittenPrefix(String pQName, String pValue) {
+		if (!pQName.startsWith(XMLConstants.XMLNS_ATTRIBUTE)) {
+			return false;
+		}
+		int len = pQName.length();
+		int xmlnsLen = XMLConstants.XMLNS_ATTRIBUTE.length();
+		int prefixLen;
+		if (len == xmlnsLen) {
+			prefixLen = 0;
+		} else if (pQName.charAt(xmlnsLen) == ':') {
+			prefixLen = len - xmlnsLen - 1;
+		} else {
+			return false;
+		}
+		for (int i = 0;  i < numWrittenPrefixes;  i++) {
+			String prefix = writtenPrefixes[i];
+			if (prefix.length() == prefixLen
+					&&  pQName.regionMatches(len-prefixLen, prefix, 0, prefixLen)) {
+				if (!writtenURIs[i].equals(pValue)) {
+					throw new IllegalStateException("The namespace prefix " + prefix
+							+ " has already been declared with another URI: " + writtenURIs[i]);
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void clearWrittenPrefixes() {
+		for (int i = 0;  i < numWrittenPrefixes;  i++) {
+			writtenPrefixes[i] = null;
+			writtenURIs[i] = null;
+		}
+		numWrittenPrefixes = 0;
+	}
+
+	private void clearDocumentState() {
+		clearDelayedPrefixes();
+		clearWrittenPrefixes();
+		if (elementNames != null) {
+			for (int i = 0;  i < depth;  i++) {
+				elementNames[i] = null;
+			}
 		}
 		state = STATE_OUTSIDE;
 		curIndent = 0;
-		if (isDeclarating()  &&  w != null) {
+		depth = 0;
+		inCDATA = false;
+		cdataBrackets = 0;
+		numElements = numAttributes = numCharacters = numEscapes = numCharacterReferences = 0;
+		unflushed = 0;
+		pendingSince = 0;
+	}
+
+	public void reset() {
+		clearDocumentState();
+		bufferPos = 0;
+		w = null;
+		l = null;
+	}
+
+	/** <p>Starts a document.</p>
+	 * @throws SAXException Not actually thrown, just for compliance to the interface specification.
+	 */
+	public void startDocument() throws SAXException {
+		clearDocumentState();
+		if (isDeclarating()  &&  hasTarget()) {
 			try {
-				w.write("<?xml version=\"1.0\"");
+				write("<?xml version=\"1.0\"");
 				String enc = getEncoding();
 				if (enc != null) {
-					w.write(" encoding=\"");
-					w.write(enc);
-					w.write("\"");
+					write(" encoding=\"");
+					write(enc);
+					write('"');
 				}
-				w.write("?>");
+				write("?>");
 				if (isIndenting()) {
 					String lf = getLineFeed();
 					if (lf != null) {
-						w.write(lf);
+						write(lf);
 					}
 				}
 			} catch (IOException e) {
@@ -157,14 +503,196 @@ public class XMLWriterImpl implements XMLWriter {
 	 *   interface specification.
 	 */  
 	public void endDocument() throws SAXException {
-		if (isFlushing()  &&  w != null) {
-			try {
+		try {
+			flushBuffer();
+			if (isFlushing()) {
+				flushTarget();
+			}
+		} catch (IOException e) {
+			throw new SAXException("Failed to flush target writer: " + e.getMessage(), e);
+		}
+		if (listener != null) {
+			listener.documentWritten(numElements, numAttributes, numCharacters,
+					numEscapes, numCharacterReferences);
+			numElements = numAttributes = numCharacters = numEscapes = numCharacterReferences = 0;
+		}
+	}
+
+	/** Writes the contents of the internal buffer to the target
+	 * and flushes the target.
+	 * @throws IOException Writing to the target failed.
+	 */
+	public void flush() throws IOException {
+		flushBuffer();
+		flushTarget();
+		unflushed = 0;
+		pendingSince = 0;
+	}
+
+	/** Writes the contents of the internal buffer to the target
+	 * {@link Writer}, without flushing the latter. Subclasses with
+	 * a different target must override this method, and
+	 * {@link #flushTarget()}, as well as the various
+	 * <code>write</code> methods.
+	 * @throws IOException Writing to the target failed.
+	 */
+	protected void flushBuffer() throws IOException {
+		if (bufferPos > 0) {
+			int len = bufferPos;
+			bufferPos = 0;
+			if (w != null) {
+				writeTarget(buffer, 0, len);
+			}
+		}
+	}
+
+	private void writeTarget(char[] pChars, int pOffset, int pLen) throws IOException {
+		unflushed += pLen;
+		if (listener == null) {
+			w.write(pChars, pOffset, pLen);
+		} else {
+			long time = System.nanoTime();
+			w.write(pChars, pOffset, pLen);
+			listener.targetWritten(pLen, System.nanoTime() - time);
+		}
+	}
+
+	/** Flushes the target {@link Writer}.
+	 * @throws IOException Flushing the target failed.
+	 */
+	protected void flushTarget() throws IOException {
+		if (w != null) {
+			if (listener == null) {
 				w.flush();
-			} catch (IOException e) {
-				throw new SAXException("Failed to flush target writer: " + e.getMessage(), e);
+			} else {
+				long time = System.nanoTime();
+				w.flush();
+				listener.targetFlushed(System.nanoTime() - time);
+			}
+		}
+	}
+
+	/** Returns, whether the writer has a target. If not, the
+	 * generated output is discarded.
+	 * @return True, if a target {@link Writer} has been set.
+	 */
+	protected boolean hasTarget() {
+		return w != null;
+	}
+
+	/** Called after a top level event (for example, the end of the
+	 * root element) has been written. Writes the internal buffer
+	 * to the target, so that callers, which don't invoke
+	 * {@link #endDocument()}, still see the complete output.
+	 */
+	private void flushTopLevel() throws IOException {
+		if (depth == 0) {
+			flushBuffer();
+		}
+		if (flushThreshold > 0  ||  maxFlushDelay > 0) {
+			checkFlush();
+		}
+	}
+
+	/** Flushes the output, if the flush threshold has been
+	 * reached, or if output has been pending for longer than
+	 * the maximum delay.
+	 */
+	private void checkFlush() throws IOException {
+		if (flushThreshold > 0  &&  unflushed + getBufferedLength() >= flushThreshold) {
+			flush();
+		} else if (maxFlushDelay > 0) {
+			long now = System.currentTimeMillis();
+			if (pendingSince == 0) {
+				pendingSince = now;
+			} else if (now - pendingSince >= maxFlushDelay) {
+				flush();
 			}
 		}
 	}
+
+	/** Called by subclasses with a different target after writing to
+	 * the latter. Used for implementing the flush threshold.
+	 * @param pLen The number of bytes, or characters, which have been
+	 * written.
+	 * @see #setFlushThreshold(int)
+	 */
+	protected void targetWritten(int pLen) {
+		unflushed += pLen;
+	}
+
+	/** Returns the length of the output, which is held in the internal
+	 * buffer. Subclasses with a different buffer must override this.
+	 * Used for implementing the flush threshold.
+	 * @return The number of bytes, or characters in the buffer.
+	 * @see #setFlushThreshold(int)
+	 */
+	protected int getBufferedLength() {
+		return bufferPos;
+	}
+
+	private char[] getBuffer() {
+		if (buffer == null) {
+			buffer = new char[bufferSize];
+		}
+		return buffer;
+	}
+
+	/** Writes a single character to the internal buffer.
+	 * @param pChar The character being written.
+	 * @throws IOException Flushing the internal buffer failed.
+	 */
+	protected void write(char pChar) throws IOException {
+		char[] buf = getBuffer();
+		if (bufferPos == buf.length) {
+			flushBuffer();
+		}
+		buf[bufferPos++] = pChar;
+	}
+
+	/** Writes a string to the internal buffer.
+	 * @param pString The string being written.
+	 * @throws IOException Flushing the internal buffer failed.
+	 */
+	protected void write(String pString) throws IOException {
+		char[] buf = getBuffer();
+		int len = pString.length();
+		int offset = 0;
+		while (len > 0) {
+			int free = buf.length - bufferPos;
+			if (free == 0) {
+				flushBuffer();
+				free = buf.length;
+			}
+			int n = len < free ? len : free;
+			pString.getChars(offset, offset+n, buf, bufferPos);
+			bufferPos += n;
+			offset += n;
+			len -= n;
+		}
+	}
+
+	/** Writes an array of characters to the internal buffer. Large
+	 * arrays are written to the target directly.
+	 * @param pChars The array being written.
+	 * @param pOffset Index of the first character being written.
+	 * @param pLen Number of characters being written.
+	 * @throws IOException Flushing the internal buffer failed.
+	 */
+	protected void write(char[] pChars, int pOffset, int pLen) throws IOException {
+		char[] buf = getBuffer();
+		if (pLen > buf.length - bufferPos) {
+			flushBuffer();
+			if (pLen >= buf.length) {
+				if (hasTarget()) {
+					writeTarget(pChars, pOffset, pLen);
+				}
+				return;
+			}
+		}
+		System.arraycopy(pChars, pOffset, buf, bufferPos, pLen);
+		bufferPos += pLen;
+	}
 	
 	/** Calls the character method with the same arguments.
 	 * @param ch A string of whitespace characters being inserted into the document.
@@ -179,8 +707,8 @@ public class XMLWriterImpl implements XMLWriter {
 	
 	private void stopTerminator() throws java.io.IOException {
 		if (state == STATE_IN_START_ELEMENT) {
-			if (w != null) {
-				w.write('>');
+			if (hasTarget()) {
+				write('>');
 			}
 			state = STATE_IN_ELEMENT;
 		}
@@ -195,34 +723,244 @@ public class XMLWriterImpl implements XMLWriter {
 	public void characters(char[] ch, int start, int length) throws SAXException {
 		try {
 			stopTerminator();
-			if (w == null) return;
-			int end = start+length;
-			for (int i = start;  i < end;  i++) {
-				char c = ch[i];
-				switch (c) {
-				case '&':  w.write("&amp;"); break;
-				case '<':  w.write("&lt;");  break;
-				case '>':  w.write("&gt;");  break;
-				case '\n':
-				case '\r':
-				case '\t':
-					w.write(c); break;
-				default:
-					if (canEncode(c)) {
-						w.write(c);
-					} else {
-						w.write("&#");
-						w.write(Integer.toString(c));
-						w.write(";");
-					}
-				break;
-				}
+			if (!hasTarget()) return;
+			if (listener != null) {
+				numCharacters += length;
 			}
+			if (inCDATA) {
+				writeCDATA(ch, start, length);
+			} else {
+				writeText(ch, start, length);
+			}
+			flushTopLevel();
 		} catch (IOException e) {
 			throw new SAXException(e);
 		}
 	}
 	
+	/** Writes the given characters as element content, replacing
+	 * special characters with entity, or character references.
+	 * @param pChars The characters being written.
+	 * @param pOffset Index of the first character being written.
+	 * @param pLen Number of characters being written.
+	 * @throws IOException Writing to the target failed.
+	 */
+	protected void writeText(char[] pChars, int pOffset, int pLen) throws IOException {
+		writeEscaped(pChars, pOffset, pLen, TEXT_ESCAPES);
+	}
+
+	/** Writes the given characters as the contents of a CDATA section.
+	 * No escaping takes place, except that the sequence
+	 * <code>]]&gt;</code> is split over two sections, and characters,
+	 * which cannot be encoded, are written as character references
+	 * between two sections.
+	 * @param pChars The characters being written.
+	 * @param pOffset Index of the first character being written.
+	 * @param pLen Number of characters being written.
+	 * @throws IOException Writing to the target failed.
+	 */
+	protected void writeCDATA(char[] pChars, int pOffset, int pLen) throws IOException {
+		int end = pOffset + pLen;
+		int runStart = pOffset;
+		int brackets = cdataBrackets;
+		for (int i = pOffset;  i < end;  i++) {
+			char c = pChars[i];
+			if (c < 128) {
+				if (c == ']') {
+					brackets++;
+					continue;
+				}
+				if (c == '>'  &&  brackets >= 2) {
+					write(pChars, runStart, i-runStart);
+					write("]]><![CDATA[");
+					runStart = i;
+				}
+				brackets = 0;
+				if (TEXT_ESCAPES[c] != ESC_CHECK  ||  canEncode(c)) {
+					continue;
+				}
+			} else {
+				brackets = 0;
+				if (canEncode(c)) {
+					continue;
+				}
+			}
+			write(pChars, runStart, i-runStart);
+			runStart = i+1;
+			int codePoint = c;
+			if (c >= '\ud800'  &&  c <= '\udbff'  &&  i+1 < end) {
+				char low = pChars[i+1];
+				if (low >= '\udc00'  &&  low <= '\udfff') {
+					codePoint = ((c - 0xd800) << 10) + (low - 0xdc00) + 0x10000;
+					runStart = ++i + 1;
+				}
+			}
+			if (isSurrogate(codePoint)) {
+				write(REPLACEMENT);
+			} else {
+				write("]]>");
+				writeCharacterReference(codePoint);
+				write("<![CDATA[");
+			}
+		}
+		if (end > runStart) {
+			write(pChars, runStart, end-runStart);
+		}
+		cdataBrackets = brackets;
+	}
+
+	/** Writes the given string as element content, replacing
+	 * special characters with entity, or character references.
+	 * @param pValue The string being written.
+	 * @throws IOException Writing to the target failed.
+	 */
+	protected void writeText(String pValue) throws IOException {
+		writeEscaped(pValue, TEXT_ESCAPES);
+	}
+
+	/** Writes the given characters as an attribute value, replacing
+	 * special characters with entity, or character references.
+	 * @param pChars The characters being written.
+	 * @param pOffset Index of the first character being written.
+	 * @param pLen Number of characters being written.
+	 * @throws IOException Writing to the target failed.
+	 */
+	protected void writeAttributeValue(char[] pChars, int pOffset, int pLen) throws IOException {
+		writeEscaped(pChars, pOffset, pLen, ATTRIBUTE_ESCAPES);
+	}
+
+	/** Writes the given string as an attribute value, replacing
+	 * special characters with entity, or character references.
+	 * @param pValue The string being written.
+	 * @throws IOException Writing to the target failed.
+	 */
+	protected void writeAttributeValue(String pValue) throws IOException {
+		writeEscaped(pValue, ATTRIBUTE_ESCAPES);
+	}
+
+	private void writeEscaped(String pValue, byte[] pEscapes) throws IOException {
+		int len = pValue.length();
+		char[] scratch = getScratch();
+		for (int offset = 0;  offset < len;  ) {
+			int n = len - offset;
+			if (n > scratch.length) {
+				n = scratch.length;
+				if (isHighSurrogate(pValue.charAt(offset + n - 1))) {
+					// Don't split a surrogate pair over two chunks.
+					--n;
+				}
+			}
+			pValue.getChars(offset, offset+n, scratch, 0);
+			writeEscaped(scratch, 0, n, pEscapes);
+			offset += n;
+		}
+	}
+
+	private char[] getScratch() {
+		if (scratch == null) {
+			scratch = new char[SCRATCH_SIZE];
+		}
+		return scratch;
+	}
+
+	/** Escaping engine: Scans for the next character, which requires
+	 * escaping, and writes the run of characters before it with a
+	 * single call of {@link #write(char[], int, int)}.
+	 */
+	private void writeEscaped(char[] pChars, int pOffset, int pLen, byte[] pEscapes)
+			throws IOException {
+		int end = pOffset + pLen;
+		int runStart = pOffset;
+		for (int i = pOffset;  i < end;  i++) {
+			char c = pChars[i];
+			String entity = null;
+			if (c < 128) {
+				byte esc = pEscapes[c];
+				if (esc == ESC_NONE) {
+					continue;
+				} else if (esc == ESC_ENTITY) {
+					entity = ENTITIES[c];
+					if (listener != null) {
+						numEscapes++;
+					}
+				} else if (canEncode(c)) {
+					continue;
+				}
+			} else if (canEncode(c)) {
+				continue;
+			}
+			if (i > runStart) {
+				write(pChars, runStart, i-runStart);
+			}
+			runStart = i+1;
+			if (entity == null) {
+				int codePoint = c;
+				if (c >= '\ud800'  &&  c <= '\udbff'  &&  i+1 < end) {
+					char low = pChars[i+1];
+					if (low >= '\udc00'  &&  low <= '\udfff') {
+						codePoint = ((c - 0xd800) << 10) + (low - 0xdc00) + 0x10000;
+						runStart = ++i + 1;
+					}
+				}
+				if (isSurrogate(codePoint)) {
+					write(REPLACEMENT);
+				} else {
+					writeCharacterReference(codePoint);
+				}
+			} else {
+				write(entity);
+			}
+		}
+		if (end > runStart) {
+			write(pChars, runStart, end-runStart);
+		}
+	}
+
+	/** Writes a numeric character reference, like &amp;#228; or
+	 * &amp;#xe4;, without creating any objects.
+	 * @param pCodePoint The Unicode code point being referenced.
+	 * @throws IOException Writing to the target failed.
+	 * @see #isHexCharacterReferences()
+	 */
+	protected void writeCharacterReference(int pCodePoint) throws IOException {
+		if (listener != null) {
+			numCharacterReferences++;
+		}
+		char[] chars = characterReference;
+		int pos = chars.length;
+		chars[--pos] = ';';
+		int n = pCodePoint;
+		if (hexCharacterReferences) {
+			do {
+				chars[--pos] = HEX_DIGITS[n & 0xf];
+				n >>>= 4;
+			} while (n != 0);
+			chars[--pos] = 'x';
+		} else {
+			while (n >= 100) {
+				int q = n / 100;
+				int r = n - q * 100;
+				chars[--pos] = DIGIT_ONES[r];
+				chars[--pos] = DIGIT_TENS[r];
+				n = q;
+			}
+			chars[--pos] = DIGIT_ONES[n];
+			if (n >= 10) {
+				chars[--pos] = DIGIT_TENS[n];
+			}
+		}
+		chars[--pos] = '#';
+		chars[--pos] = '&';
+		write(chars, pos, chars.length - pos);
+	}
+
+	/** Returns, whether the character <code>c</code> can be written
+	 * without an escape sequence. The escaping engine assumes, that
+	 * printable ASCII characters can always be encoded, and doesn't
+	 * invoke this method for them.
+	 * @param c The character being checked.
+	 * @return True, if the character can be written as is.
+	 */
 	public boolean canEncode(char c) {
 		return c == '\n'  ||  (c >= ' '  &&  c < 0x7f);
 	}
@@ -240,20 +978,25 @@ public class XMLWriterImpl implements XMLWriter {
 		if (isIndenting()) {
 			--curIndent;
 		}
-		if (w != null) {
+		if (--depth >= 0  &&  elementNames != null) {
+			elementNames[depth] = null;
+		}
+		if (hasTarget()) {
 			try {
 				if (state == STATE_IN_START_ELEMENT) {
-					w.write("/>");
+					write("/>");
 					state = STATE_OUTSIDE;
 				} else {
 					if (state == STATE_OUTSIDE) {
 						indentMe();
 					}
-					w.write("</");
-					w.write(qName);
-					w.write('>');
+					writeEndTag(qName);
 				}
 				state = STATE_OUTSIDE;
+				flushTopLevel();
+				if (depth < flushDepth) {
+					flush();
+				}
 			} catch (java.io.IOException e) {
 				throw new SAXException(e);
 			}
@@ -261,41 +1004,29 @@ public class XMLWriterImpl implements XMLWriter {
 	}
 	
 	private void indentMe() throws java.io.IOException {
-		if (w != null) {
+		if (hasTarget()) {
 			if (isIndenting()) {
-				String s = getLineFeed();
-				if (s != null) {
-					w.write(s);
-				}
-				s = getIndentString();
-				if (s != null) {
-					for (int i = 0;  i < curIndent;  i++) {
-						w.write(s);
+				String lf = getLineFeed();
+				String is = getIndentString();
+				int lfLen = lf == null ? 0 : lf.length();
+				int isLen = is == null ? 0 : is.length();
+				int len = lfLen + (curIndent > 0 ? curIndent * isLen : 0);
+				if (indentation == null  ||  indentation.length < len) {
+					int levels = curIndent < 8 ? 16 : curIndent * 2;
+					char[] chars = new char[lfLen + levels * isLen];
+					if (lfLen > 0) {
+						lf.getChars(0, lfLen, chars, 0);
+					}
+					if (isLen > 0) {
+						for (int i = lfLen;  i < chars.length;  i += isLen) {
+							is.getChars(0, isLen, chars, i);
+						}
 					}
+					indentation = chars;
 				}
-			}
-		}
-	}
-	
-	private void writeCData(String v) throws java.io.IOException {
-		int len = v.length();
-		for (int j = 0;  j < len;  j++) {
-			char c = v.charAt(j);
-			switch (c) {
-			case '&':  w.write("&amp;");  break;
-			case '<':  w.write("&lt;");   break;
-			case '>':  w.write("&gt;");   break;
-			case '\'': w.write("&apos;"); break;
-			case '"':  w.write("&quot;"); break;
-			default:
-				if (canEncode(c)) {
-					w.write(c);
-				} else {
-					w.write("&#");
-					w.write(Integer.toString(c));
-					w.write(';');
+				if (len > 0) {
+					write(indentation, 0, len);
 				}
-			break;
 			}
 		}
 	}
@@ -310,50 +1041,587 @@ public class XMLWriterImpl implements XMLWriter {
 	 */
 	public void startElement(String namespaceURI, String localName, String qName,
 			Attributes attr) throws SAXException {
+		try {
+			startTag(qName);
+			if (hasTarget()) {
+				if (attr != null) {
+					writeAttributes(attr);
+				}
+				writeDelayedPrefixes();
+			}
+			clearDelayedPrefixes();
+		} catch (java.io.IOException e) {
+			throw new SAXException(e);
+		}
+	}
+
+	/** Writes the beginning of a start tag, and pushes the element
+	 * name on the stack of open elements.
+	 */
+	private void startTag(String pQName) throws IOException {
+		stopTerminator();
+		clearWrittenPrefixes();
+		if (isIndenting()) {
+			if (curIndent > 0) {
+				indentMe();
+			}
+			curIndent++;
+		}
+		if (elementNames == null) {
+			elementNames = new String[16];
+		} else if (depth == elementNames.length) {
+			String[] names = new String[depth * 2];
+			System.arraycopy(elementNames, 0, names, 0, depth);
+			elementNames = names;
+		}
+		elementNames[depth++] = pQName;
+		if (listener != null) {
+			numElements++;
+		}
+		if (hasTarget()) {
+			writeStartTag(pQName);
+		}
+		state = STATE_IN_START_ELEMENT;
+	}
+
+	/** Writes the attributes of a start tag. The default implementation
+	 * invokes {@link #writeAttribute(Attributes, int)} for all attributes,
+	 * in reverse order. Subclasses may override this to change the order.
+	 * @param pAttrs The attributes being written.
+	 * @throws IOException Writing to the target failed.
+	 */
+	protected void writeAttributes(Attributes pAttrs) throws IOException {
+		for (int i = pAttrs.getLength();  i > 0;) {
+			writeAttribute(pAttrs, --i);
+		}
+	}
+
+	/** Writes a single attribute of a start tag. If the attribute is
+	 * a namespace declaration, then the corresponding declaration,
+	 * which has been announced by {@link #startPrefixMapping(String, String)},
+	 * is dropped.
+	 * @param pAttrs The attributes of the start tag.
+	 * @param pIndex Index of the attribute being written.
+	 * @throws IOException Writing to the target failed.
+	 */
+	protected void writeAttribute(Attributes pAttrs, int pIndex) throws IOException {
+		String name = pAttrs.getQName(pIndex);
+		if (numDelayedPrefixes > 0) {
+			removeDelayedPrefix(name);
+		}
+		writeAttribute0(name, pAttrs.getValue(pIndex));
+	}
+
+	private void writeAttribute0(String pQName, String pValue) throws IOException {
+		if (listener != null) {
+			numAttributes++;
+			numCharacters += pValue.length();
+		}
+		writeAttributeName(pQName);
+		writeAttributeValue(pValue);
+		write('"');
+	}
+
+	/** Returns the number of currently open elements.
+	 */
+	int getDepth() {
+		return depth;
+	}
+
+	/** Returns the cache entry for the given element, or attribute name.
+	 */
+	NameCache.Entry getName(String pQName) {
+		if (names == null) {
+			names = new NameCache(NameCache.DEFAULT_SIZE);
+		}
+		return names.get(pQName);
+	}
+
+	/** Writes the string <code>&lt;</code>, followed by the given element name.
+	 * @param pQName The elements qualified name.
+	 * @throws IOException Writing to the target failed.
+	 */
+	protected void writeStartTag(String pQName) throws IOException {
+		char[] chars = getName(pQName).getStartTag();
+		write(chars, 0, chars.length);
+	}
+
+	/** Writes the end tag of the given element.
+	 * @param pQName The elements qualified name.
+	 * @throws IOException Writing to the target failed.
+	 */
+	protected void writeEndTag(String pQName) throws IOException {
+		char[] chars = getName(pQName).getEndTag();
+		write(chars, 0, chars.length);
+	}
+
+	/** Writes a blank, the given attribute name, an equals sign,
+	 * and the opening quote of the attribute value.
+	 * @param pQName The attributes qualified name.
+	 * @throws IOException Writing to the target failed.
+	 */
+	protected void writeAttributeName(String pQName) throws IOException {
+		char[] chars = getName(pQName).getAttribute();
+		write(chars, 0, chars.length);
+	}
+
+	private void writeDelayedPrefixes() throws IOException {
+		for (int i = 0;  i < numDelayedPrefixes;  i++) {
+			writeDelayedPrefix(i);
+		}
+	}
+
+	private void writeDelayedPrefix(int pIndex) throws IOException {
+		write(' ');
+		write(XMLConstants.XMLNS_ATTRIBUTE);
+		String prefix = delayedPrefixes[pIndex];
+		if (prefix.length() > 0) {
+			write(':');
+			write(prefix);
+		}
+		write("=\"");
+		write(delayedURIs[pIndex]);
+		write('"');
+	}
+
+	public void writeStartElement(String pQName) throws SAXException {
+		try {
+			startTag(pQName);
+			if (hasTarget()) {
+				writeDelayedPrefixes();
+			}
+			// Remember the written declarations, so that writeAttribute
+			// doesn't repeat them.
+			String[] prefixes = writtenPrefixes;
+			String[] uris = writtenURIs;
+			writtenPrefixes = delayedPrefixes;
+			writtenURIs = delayedURIs;
+			numWrittenPrefixes = numDelayedPrefixes;
+			delayedPrefixes = prefixes;
+			delayedURIs = uris;
+			numDelayedPrefixes = 0;
+		} catch (IOException e) {
+			throw new SAXException(e);
+		}
+	}
+
+	public void writeAttribute(String pQName, String pValue) throws SAXException {
+		if (state != STATE_IN_START_ELEMENT) {
+			throw new IllegalStateException("An attribute may only be written immediately after a start tag.");
+		}
+		if (numWrittenPrefixes > 0  &&  isWrittenPrefix(pQName, pValue)) {
+			return;
+		}
+		if (hasTarget()) {
+			try {
+				writeAttribute0(pQName, pValue);
+			} catch (IOException e) {
+				throw new SAXException(e);
+			}
+		}
+	}
+
+	public void writeCharacters(char[] pChars, int pOffset, int pLen) throws SAXException {
+		characters(pChars, pOffset, pLen);
+	}
+
+	public void writeCharacters(Reader pReader) throws SAXException, IOException {
+		char[] chars = getScratch();
+		int carry = 0;
+		for (;;) {
+			int res = pReader.read(chars, carry, chars.length - carry);
+			if (res == -1) {
+				break;
+			}
+			int len = carry + res;
+			carry = 0;
+			if (len > 0  &&  isHighSurrogate(chars[len-1])) {
+				// Keep the high surrogate, so that a surrogate pair
+				// is never split over two chunks.
+				carry = 1;
+				--len;
+			}
+			if (len > 0) {
+				characters(chars, 0, len);
+				if (carry > 0) {
+					chars[0] = chars[len];
+				}
+			}
+		}
+		if (carry > 0) {
+			characters(chars, 0, carry);
+		}
+	}
+
+	public void writeCharacters(CharSequence pChars) throws SAXException {
+		char[] chars = getScratch();
+		int end = pChars.length();
+		for (int offset = 0;  offset < end;  ) {
+			int len = end - offset;
+			if (len > chars.length) {
+				len = chars.length;
+				if (isHighSurrogate(pChars.charAt(offset + len - 1))) {
+					// Don't split a surrogate pair over two chunks.
+					--len;
+				}
+			}
+			if (pChars instanceof String) {
+				((String) pChars).getChars(offset, offset + len, chars, 0);
+			} else if (pChars instanceof StringBuffer) {
+				((StringBuffer) pChars).getChars(offset, offset + len, chars, 0);
+			} else {
+				for (int i = 0;  i < len;  i++) {
+					chars[i] = pChars.charAt(offset + i);
+				}
+			}
+			characters(chars, 0, len);
+			offset += len;
+		}
+	}
+
+	private static boolean isHighSurrogate(char c) {
+		return c >= '\ud800'  &&  c <= '\udbff';
+	}
+
+	/** Returns, whether the given code point is an unpaired surrogate,
+	 * which is no legal XML character, and cannot be written as a
+	 * character reference.
+	 */
+	private static boolean isSurrogate(int pCodePoint) {
+		return pCodePoint >= 0xd800  &&  pCodePoint <= 0xdfff;
+	}
+
+	/** Writes a formatted value as element content. Unlike
+	 * {@link #characters(char[], int, int)}, this bypasses the
+	 * escaping engine: Typed values consist of ASCII characters,
+	 * which never require escaping.
+	 */
+	private void writeValue(char[] pChars, int pOffset, int pLen) throws SAXException {
 		try {
 			stopTerminator();
-			if (isIndenting()) {
-				if (curIndent > 0) {
-					indentMe();
+			if (!hasTarget()) return;
+			if (listener != null) {
+				numCharacters += pLen;
+			}
+			write(pChars, pOffset, pLen);
+			flushTopLevel();
+		} catch (IOException e) {
+			throw new SAXException(e);
+		}
+	}
+
+	public void writeInt(int pValue) throws SAXException {
+		int pos = formatLong(pValue, value, value.length);
+		writeValue(value, pos, value.length - pos);
+	}
+
+	public void writeLong(long pValue) throws SAXException {
+		int pos = formatLong(pValue, value, value.length);
+		writeValue(value, pos, value.length - pos);
+	}
+
+	public void writeBoolean(boolean pValue) throws SAXException {
+		char[] chars = pValue ? TRUE : FALSE;
+		writeValue(chars, 0, chars.length);
+	}
+
+	/** Writes a double value. Values with an absolute value between
+	 * 10^-3, and 10^7, whose shortest representation has no more than
+	 * 15 digits, are formatted without creating any objects: The digits are
+	 * obtained by scaling with a power of ten, and the result is
+	 * accepted, if the division by the same power of ten (which is
+	 * correctly rounded) yields the original value. Other values are
+	 * formatted by {@link Double#toString(double)}.
+	 */
+	public void writeDouble(double pValue) throws SAXException {
+		if (pValue != pValue) {
+			writeValue(NAN, 0, NAN.length);
+			return;
+		}
+		if (Double.isInfinite(pValue)) {
+			int offset = pValue < 0 ? 0 : 1;
+			writeValue(INF, offset, INF.length - offset);
+			return;
+		}
+		if (pValue == 0) {
+			int offset = 1 / pValue < 0 ? 0 : 1;
+			writeValue(ZERO, offset, ZERO.length - offset);
+			return;
+		}
+		double abs = Math.abs(pValue);
+		if (abs >= 1e-3  &&  abs < 1e7) {
+			for (int i = 0;  i < POWERS_OF_TEN.length;  i++) {
+				double power = POWERS_OF_TEN[i];
+				double scaled = abs * power;
+				if (scaled >= MAX_EXACT_LONG) {
+					break;
+				}
+				long digits = (long) (scaled + 0.5);
+				if (digits / power == abs) {
+					char[] chars = value;
+					int pos = chars.length;
+					if (i == 0) {
+						chars[--pos] = '0';
+					} else {
+						for (int j = 0;  j < i;  j++) {
+							long q = digits / 10;
+							chars[--pos] = (char) ('0' + (int) (digits - q * 10));
+							digits = q;
+						}
+					}
+					chars[--pos] = '.';
+					pos = formatLong(digits, chars, pos);
+					if (pValue < 0) {
+						chars[--pos] = '-';
+					}
+					writeValue(chars, pos, chars.length - pos);
+					return;
 				}
-				curIndent++;
 			}
-			
-			if (w != null) {
-				w.write('<');
-				w.write(qName);
-				if (attr != null) {
-					for (int i = attr.getLength();  i > 0;) {
-						w.write(' ');
-						String name = attr.getQName(--i);
-						w.write(name);
-						if (delayedPrefixes != null) {
-							delayedPrefixes.remove(name);
+		}
+		String s = Double.toString(pValue);
+		int len = s.length();
+		s.getChars(0, len, value, 0);
+		writeValue(value, 0, len);
+	}
+
+	public void writeDateTime(long pMillis, int pOffsetMinutes) throws SAXException {
+		if (pOffsetMinutes < -14*60  ||  pOffsetMinutes > 14*60) {
+			throw new IllegalArgumentException("Invalid time zone offset: " + pOffsetMinutes);
+		}
+		long local = pMillis + pOffsetMinutes * 60000L;
+		long days = local / MILLIS_PER_DAY;
+		int millisOfDay = (int) (local - days * MILLIS_PER_DAY);
+		if (millisOfDay < 0) {
+			millisOfDay += MILLIS_PER_DAY;
+			--days;
+		}
+		// Conversion of days into the proleptic Gregorian calendar, counting
+		// 400 year eras, which start at March 1st, 0000.
+		long z = days + 719468;
+		long era = (z >= 0 ? z : z - 146096) / 146097;
+		int dayOfEra = (int) (z - era * 146097);
+		int yearOfEra = (dayOfEra - dayOfEra/1460 + dayOfEra/36524 - dayOfEra/146096) / 365;
+		int dayOfYear = dayOfEra - (365*yearOfEra + yearOfEra/4 - yearOfEra/100);
+		int mp = (5*dayOfYear + 2) / 153;
+		int day = dayOfYear - (153*mp + 2) / 5 + 1;
+		int month = mp < 10 ? mp + 3 : mp - 9;
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+		char[] chars = value;
+		int pos = chars.length;
+		if (pOffsetMinutes == 0) {
+			chars[--pos] = 'Z';
+		} else {
+			int offset = Math.abs(pOffsetMinutes);
+			pos = formatDigits(offset % 60, chars, pos);
+			chars[--pos] = ':';
+			pos = formatDigits(offset / 60, chars, pos);
+			chars[--pos] = pOffsetMinutes < 0 ? '-' : '+';
+		}
+		int millis = millisOfDay % 1000;
+		int seconds = millisOfDay / 1000;
+		if (millis > 0) {
+			pos = formatDigits(millis % 100, chars, pos);
+			chars[--pos] = (char) ('0' + millis / 100);
+			chars[--pos] = '.';
+		}
+		pos = formatDigits(seconds % 60, chars, pos);
+		chars[--pos] = ':';
+		pos = formatDigits((seconds / 60) % 60, chars, pos);
+		chars[--pos] = ':';
+		pos = formatDigits(seconds / 3600, chars, pos);
+		chars[--pos] = 'T';
+		pos = formatDigits(day, chars, pos);
+		chars[--pos] = '-';
+		pos = formatDigits(month, chars, pos);
+		chars[--pos] = '-';
+		long absYear = Math.abs(year);
+		int yearStart = pos;
+		pos = formatLong(absYear, chars, pos);
+		while (yearStart - pos < 4) {
+			chars[--pos] = '0';
+		}
+		if (year < 0) {
+			chars[--pos] = '-';
+		}
+		writeValue(chars, pos, chars.length - pos);
+	}
+
+	/** Formats the given value into the given array, ending before
+	 * the given position.
+	 * @return The position of the first character.
+	 */
+	private static int formatLong(long pValue, char[] pChars, int pEnd) {
+		// Work with negative numbers, so that Long.MIN_VALUE is handled.
+		long n = pValue < 0 ? pValue : -pValue;
+		int pos = pEnd;
+		while (n <= -100) {
+			long q = n / 100;
+			int r = (int) (q * 100 - n);
+			pChars[--pos] = DIGIT_ONES[r];
+			pChars[--pos] = DIGIT_TENS[r];
+			n = q;
+		}
+		int r = (int) -n;
+		pChars[--pos] = DIGIT_ONES[r];
+		if (r >= 10) {
+			pChars[--pos] = DIGIT_TENS[r];
+		}
+		if (pValue < 0) {
+			pChars[--pos] = '-';
+		}
+		return pos;
+	}
+
+	/** Formats the given value between 0 and 99 as two digits into the
+	 * given array, ending before the given position.
+	 * @return The position of the first character.
+	 */
+	private static int formatDigits(int pValue, char[] pChars, int pEnd) {
+		pChars[pEnd-1] = DIGIT_ONES[pValue];
+		pChars[pEnd-2] = DIGIT_TENS[pValue];
+		return pEnd-2;
+	}
+
+	public void writeEndElement() throws SAXException {
+		if (depth <= 0) {
+			throw new IllegalStateException("There is no open element.");
+		}
+		endElement(null, null, elementNames[depth-1]);
+	}
+
+	public void writeFragment(PreSerializedFragment pFragment) throws SAXException {
+		try {
+			stopTerminator();
+			if (isIndenting()  &&  curIndent > 0) {
+				indentMe();
+			}
+			if (hasTarget()) {
+				if (!pFragment.isAscii()) {
+					char[] chars = pFragment.getChars();
+					for (int i = 0;  i < chars.length;  i++) {
+						char c = chars[i];
+						if (c >= 0x80  &&  !canEncode(c)) {
+							throw new SAXException("The fragment contains characters, which cannot be encoded: " + (int) c);
 						}
-						w.write("=\"");
-						writeCData(attr.getValue(i));
-						w.write('"');
 					}
 				}
-				if (delayedPrefixes != null  &&  delayedPrefixes.size() > 0) {
-					for (java.util.Iterator iter = delayedPrefixes.entrySet().iterator();
-					iter.hasNext();  ) {
-						java.util.Map.Entry entry = (java.util.Map.Entry) iter.next();
-						w.write(' ');
-						w.write((String) entry.getKey());
-						w.write("=\"");
-						w.write((String) entry.getValue());
-						w.write('"');
+				writeFragment(pFragment, true);
+				if (pFragment.hasElement()) {
+					for (int i = 0;  i < numDelayedPrefixes;  i++) {
+						if (!pFragment.isDeclaring(delayedPrefixes[i])) {
+							writeDelayedPrefix(i);
+						}
 					}
-					delayedPrefixes.clear();
 				}
+				writeFragment(pFragment, false);
 			}
-			state = STATE_IN_START_ELEMENT;
-		} catch (java.io.IOException e) {
+			clearDelayedPrefixes();
+			state = STATE_OUTSIDE;
+			flushTopLevel();
+		} catch (IOException e) {
 			throw new SAXException(e);
 		}
 	}
+
+	/** Writes the serialized fragment, without any further processing.
+	 * @param pFragment The fragment being written.
+	 * @param pHead True, if the part up to the end of the root elements
+	 * attributes is being written, false for the remaining part.
+	 * @throws IOException Writing to the target failed.
+	 */
+	protected void writeFragment(PreSerializedFragment pFragment, boolean pHead) throws IOException {
+		char[] chars = pFragment.getChars();
+		int insertPos = pFragment.getInsertPos();
+		if (pHead) {
+			write(chars, 0, insertPos);
+		} else {
+			write(chars, insertPos, chars.length - insertPos);
+		}
+	}
 	
+	/** Starts a CDATA section. Subsequent characters are written
+	 * without escaping, until {@link #endCDATA()} is called.
+	 * @throws SAXException Thrown in case of an IOException.
+	 */
+	public void startCDATA() throws SAXException {
+		try {
+			stopTerminator();
+			if (hasTarget()) {
+				write("<![CDATA[");
+			}
+			inCDATA = true;
+			cdataBrackets = 0;
+		} catch (IOException e) {
+			throw new SAXException(e);
+		}
+	}
+
+	/** Terminates a CDATA section.
+	 * @throws SAXException Thrown in case of an IOException.
+	 */
+	public void endCDATA() throws SAXException {
+		try {
+			inCDATA = false;
+			if (hasTarget()) {
+				write("]]>");
+				flushTopLevel();
+			}
+		} catch (IOException e) {
+			throw new SAXException(e);
+		}
+	}
+
+	/** Inserts a comment. The comment text is written as is.
+	 * @param ch The comment text. A substring, to be precise.
+	 * @param start Index of the first character.
+	 * @param length Number of characters.
+	 * @throws SAXException Thrown in case of an IOException.
+	 */
+	public void comment(char[] ch, int start, int length) throws SAXException {
+		try {
+			stopTerminator();
+			if (hasTarget()) {
+				write("<!--");
+				write(ch, start, length);
+				write("-->");
+				flushTopLevel();
+			}
+		} catch (IOException e) {
+			throw new SAXException(e);
+		}
+	}
+
+	/** Ignored: The document type declaration isn't written.
+	 * @param name The document type name.
+	 * @param publicId The public identifier, or null.
+	 * @param systemId The system identifier, or null.
+	 * @throws SAXException Not actually thrown, just for compliance to the interface specification.
+	 */
+	public void startDTD(String name, String publicId, String systemId) throws SAXException {
+	}
+
+	/** Ignored: The document type declaration isn't written.
+	 * @throws SAXException Not actually thrown, just for compliance to the interface specification.
+	 */
+	public void endDTD() throws SAXException {
+	}
+
+	/** Ignored: The entities replacement text is written instead.
+	 * @param name The entity name.
+	 * @throws SAXException Not actually thrown, just for compliance to the interface specification.
+	 */
+	public void startEntity(String name) throws SAXException {
+	}
+
+	/** Ignored: The entities replacement text is written instead.
+	 * @param name The entity name.
+	 * @throws SAXException Not actually thrown, just for compliance to the interface specification.
+	 */
+	public void endEntity(String name) throws SAXException {
+	}
+
 	/** Not actually implemented, because I don't know how to skip entities.
 	 *
 	 * @param ent The entity being skipped.
@@ -373,12 +1641,13 @@ public class XMLWriterImpl implements XMLWriter {
 	throws SAXException {
 		try {
 			stopTerminator();
-			if (w != null) {
-				w.write("<?");
-				w.write(target);
-				w.write(' ');
-				w.write(data);
-				w.write("?>");
+			if (hasTarget()) {
+				write("<?");
+				write(target);
+				write(' ');
+				write(data);
+				write("?>");
+				flushTopLevel();
 			}
 		} catch (java.io.IOException e) {
 			throw new SAXException(e);
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2003, 2004  The Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ws.commons.serialize;
+
+
+/** A bounded, thread safe pool of {@link XMLWriter} instances.
+ * Reusing the writers avoids allocating their internal buffers
+ * for any document. To reduce contention, the pool is split into
+ * stripes, which are selected by the current thread.<br>
+ * The writers are created by {@link #newXMLWriter()}, which should
+ * be overridden for configuring them:
+ * <pre>
+ *   XMLWriterPool pool = new XMLWriterPool(64){
+ *     protected XMLWriter newXMLWriter() {
+ *       XMLWriter xw = new Utf8XMLWriter();
+ *       xw.setDeclarating(true);
+ *       return xw;
+ *     }
+ *   };
+ *   Utf8XMLWriter xw = (Utf8XMLWriter) pool.getXMLWriter();
+ *   try {
+ *     xw.setOutputStream(out);
+ *     ...
+ *   } finally {
+ *     pool.release(xw);
+ *   }
+ * </pre>
+ * Works with Java 1.2 and later.
+ */
+public class XMLWriterPool {
+	private static final int MAX_STRIPES = 8;
+
+	private static class Stripe {
+		final XMLWriter[] writers;
+		int size;
+		Stripe(int pCapacity) {
+			writers = new XMLWriter[pCapacity];
+		}
+	}
+
+	private final int maxSize;
+	private final Stripe[] stripes;
+
+	/** Creates a new pool, which holds up to 64 writers.
+	 */
+	public XMLWriterPool() {
+		this(64);
+	}
+
+	/** Creates a new pool, which holds up to the given number of
+	 * writers. Writers, which are released, while the pool is full,
+	 * are discarded.
+	 * @param pMaxSize The maximum number of writers in the pool.
+	 */
+	public XMLWriterPool(int pMaxSize) {
+		if (pMaxSize < 1) {
+			throw new IllegalArgumentException("Invalid maximum size: " + pMaxSize);
+		}
+		maxSize = pMaxSize;
+		int num = 1;
+		while (num < MAX_STRIPES  &&  num * 2 <= pMaxSize) {
+			num *= 2;
+		}
+		stripes = new Stripe[num];
+		for (int i = 0;  i < num;  i++) {
+			stripes[i] = new Stripe(pMaxSize / num + (i < pMaxSize % num ? 1 : 0));
+		}
+	}
+
+	/** Returns the maximum number of writers in the pool.
+	 * @return The pools maximum size.
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/** Called for creating a new writer, if the pool is empty.
+	 * Subclasses will typically override this, in order to
+	 * configure the writer.
+	 * @return A new instance of {@link XMLWriterImpl}.
+	 */
+	protected XMLWriter newXMLWriter() {
+		return new XMLWriterImpl();
+	}
+
+	private int getStripeIndex() {
+		int h = System.identityHashCode(Thread.currentThread());
+		h ^= (h >>> 16);
+		h ^= (h >>> 8);
+		return h & (stripes.length-1);
+	}
+
+	/** Returns a writer from the pool, or a new writer, if the
+	 * pool is empty. The caller must set the writers target,
+	 * and should return the writer by invoking {@link #release(XMLWriter)}.
+	 * @return A writer, which is ready for use.
+	 */
+	public XMLWriter getXMLWriter() {
+		int index = getStripeIndex();
+		for (int i = 0;  i < stripes.length;  i++) {
+			Stripe stripe = stripes[(index + i) & (stripes.length-1)];
+			synchronized (stripe) {
+				if (stripe.size > 0) {
+					int n = --stripe.size;
+					XMLWriter result = stripe.writers[n];
+					stripe.writers[n] = null;
+					return result;
+				}
+			}
+		}
+		return newXMLWriter();
+	}
+
+	/** Returns a writer to the pool. The writer is reset, so
+	 * that any document state, and the target, are discarded.
+	 * The writer must not be used by the caller afterwards.
+	 * @param pWriter The writer being released.
+	 */
+	public void release(XMLWriter pWriter) {
+		pWriter.reset();
+		int index = getStripeIndex();
+		for (int i = 0;  i < stripes.length;  i++) {
+			Stripe stripe = stripes[(index + i) & (stripes.length-1)];
+			synchronized (stripe) {
+				if (stripe.size < stripe.writers.length) {
+					stripe.writers[stripe.size++] = pWriter;
+					return;
+				}
+			}
+		}
+	}
+}
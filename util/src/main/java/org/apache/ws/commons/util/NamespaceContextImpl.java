@@ -413,12 +413,13 @@ public class NamespaceContextImpl implements NamespaceContext {
                     }
                     result.add(nsPrefix);
                 }
-
-                final long[][] newScopedPrefixUriMappings = new long[scopedPrefixUriMappings.length - 1][];
-                System.arraycopy(scopedPrefixUriMappings, 0, newScopedPrefixUriMappings, 0, newScopedPrefixUriMappings.length);
-                scopedPrefixUriMappings = newScopedPrefixUriMappings;
-                currentScope--;
             }
+
+            // the scope is removed, even if it contains no mappings
+            final long[][] newScopedPrefixUriMappings = new long[scopedPrefixUriMappings.length - 1][];
+            System.arraycopy(scopedPrefixUriMappings, 0, newScopedPrefixUriMappings, 0, newScopedPrefixUriMappings.length);
+            scopedPrefixUriMappings = newScopedPrefixUriMappings;
+            currentScope--;
         }
 
         if (result == null) {
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2003, 2004  The Apache Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ws.commons.serialize.test;
+
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.TestCase;
+
+import org.apache.ws.commons.serialize.AsyncXMLWriter;
+import org.apache.ws.commons.serialize.DOMSerializer;
+import org.apache.ws.commons.serialize.XMLWriter;
+import org.apache.ws.commons.serialize.XMLWriterImpl;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+
+/** A test case for the {@link AsyncXMLWriter}.
+ */
+public class AsyncXMLWriterTest extends TestCase {
+	/** Test for serializing a document in the background.
+	 * @throws Exception The test failed.
+	 */
+	public void testAsyncSerialization() throws Exception {
+		StringBuffer sb = new StringBuffer();
+		sb.append("<a xmlns=\"urn:a\" x=\"1\">");
+		for (int i = 0;  i < 500;  i++) {
+			sb.append("<b y=\"").append(i).append("\" z=\"&lt;\">Some text &amp; &lt;more&gt; text, number ")
+				.append(i).append("</b><?pi data?>");
+		}
+		sb.append("</a>");
+		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+		dbf.setNamespaceAware(true);
+		Document doc = dbf.newDocumentBuilder().parse(new InputSource(new StringReader(sb.toString())));
+		StringWriter expect = new StringWriter();
+		XMLWriter xmlWriter = new XMLWriterImpl();
+		xmlWriter.setWriter(expect);
+		new DOMSerializer().serialize(doc, xmlWriter);
+		for (int i = 0;  i < 3;  i++) {
+			StringWriter sw = new StringWriter();
+			XMLWriter xw = new XMLWriterImpl();
+			xw.setWriter(sw);
+			AsyncXMLWriter aw = i == 0 ? new AsyncXMLWriter(xw) : new AsyncXMLWriter(xw, i+1, 64);
+			new DOMSerializer().serialize(doc, aw);
+			aw.close();
+			assertEquals(expect.toString(), sw.toString());
+		}
+	}
+
+	/** Test for reporting an error of the target handler.
+	 * @throws Exception The test failed.
+	 */
+	public void testAsyncFailure() throws Exception {
+		AsyncXMLWriter aw = new AsyncXMLWriter(new DefaultHandler(){
+			public void endElement(String pURI, String pLocalName, String pQName) throws SAXException {
+				throw new SAXException("Failure: " + pQName);
+			}
+		});
+		aw.startDocument();
+		aw.startElement("", "a", "a", new AttributesImpl());
+		aw.endElement("", "a", "a");
+		try {
+			aw.endDocument();
+			aw.waitFor();
+			fail("Expected SAXException");
+		} catch (SAXException e) {
+			assertEquals("Failure: a", e.getMessage());
+		} finally {
+			try {
+				aw.close();
+			} catch (SAXException e) {
+				// Ignore me
+			}
+		}
+	}
+
+	/** Test for interrupting the consumer thread: The producer must
+	 * not block, when the ring of chunks is full.
+	 * @throws Exception The test failed.
+	 */
+	public void testConsumerInterrupted() throws Exception {
+		final Thread[] consumer = new Thread[1];
+		final AsyncXMLWriter aw = new AsyncXMLWriter(new DefaultHandler(), 2, 64){
+			protected Thread newThread(Runnable pRunnable) {
+				consumer[0] = super.newThread(pRunnable);
+				return consumer[0];
+			}
+		};
+		aw.startDocument();
+		aw.waitFor();
+		consumer[0].interrupt();
+		consumer[0].join(10000);
+		assertFalse(consumer[0].isAlive());
+
+		final Throwable[] result = new Throwable[1];
+		Thread producer = new Thread(){
+			public void run() {
+				try {
+					aw.startElement("", "a", "a", new AttributesImpl());
+					char[] chars = "Some text".toCharArray();
+					for (int i = 0;  i < 1000;  i++) {
+						aw.characters(chars, 0, chars.length);
+					}
+					aw.endElement("", "a", "a");
+					aw.endDocument();
+					aw.close();
+				} catch (Throwable t) {
+					result[0] = t;
+				}
+			}
+		};
+		producer.start();
+		producer.join(10000);
+		assertFalse(producer.isAlive());
+		assertTrue(result[0] instanceof SAXException);
+		assertTrue(((SAXException) result[0]).getException() instanceof InterruptedIOException);
+	}
+
+	/** Test for interrupting the consumer thread, while the producer
+	 * is blocked, because the consumer is busy.
+	 * @throws Exception The test failed.
+	 */
+	public void testConsumerInterruptedWhileBlocked() throws Exception {
+		final Object gate = new Object();
+		final boolean[] blocked = new boolean[1];
+		final Thread[] consumer = new Thread[1];
+		final AsyncXMLWriter aw = new AsyncXMLWriter(new DefaultHandler(){
+			public void characters(char[] pChars, int pOffset, int pLen) {
+				synchronized (gate) {
+					if (!blocked[0]) {
+						blocked[0] = true;
+						gate.notifyAll();
+						try {
+							gate.wait();
+						} catch (InterruptedException e) {
+							// Restore the flag, so that the consumer notices.
+							Thread.currentThread().interrupt();
+						}
+					}
+				}
+			}
+		}, 2, 64){
+			protected Thread newThread(Runnable pRunnable) {
+				consumer[0] = super.newThread(pRunnable);
+				return consumer[0];
+			}
+		};
+		final Throwable[] result = new Throwable[1];
+		Thread producer = new Thread(){
+			public void run() {
+				try {
+					aw.startDocument();
+					aw.startElement("", "a", "a", new AttributesImpl());
+					char[] chars = "Some text".toCharArray();
+					for (int i = 0;  i < 1000;  i++) {
+						aw.characters(chars, 0, chars.length);
+					}
+					aw.endElement("", "a", "a");
+					aw.endDocument();
+					aw.close();
+				} catch (Throwable t) {
+					result[0] = t;
+				}
+			}
+		};
+		producer.start();
+		synchronized (gate) {
+			while (!blocked[0]) {
+				gate.wait();
+			}
+		}
+		// Give the producer the chance to fill the ring.
+		producer.join(200);
+		consumer[0].interrupt();
+		producer.join(10000);
+		assertFalse(producer.isAlive());
+		if (result[0] != null) {
+			assertTrue(result[0] instanceof SAXException);
+			assertTrue(((SAXException) result[0]).getException() instanceof InterruptedIOException);
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2003, 2004  The Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ws.commons.serialize.test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.TestCase;
+
+import org.apache.ws.commons.serialize.C14NXMLWriter;
+import org.apache.ws.commons.serialize.DOMSerializer;
+import org.apache.ws.commons.serialize.PreSerializedFragment;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+
+/** A test case for the {@link C14NXMLWriter}. The test documents
+ * are taken from the W3C recommendations.
+ */
+public class C14NXMLWriterTest extends TestCase {
+	private Document parse(String pXml) throws Exception {
+		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+		dbf.setNamespaceAware(true);
+		return dbf.newDocumentBuilder().parse(new InputSource(new StringReader(pXml)));
+	}
+
+	private String canonicalize(C14NXMLWriter pWriter, Node pNode) throws Exception {
+		StringWriter sw = new StringWriter();
+		pWriter.setWriter(sw);
+		pWriter.startDocument();
+		new DOMSerializer().serialize(pNode, pWriter);
+		pWriter.endDocument();
+		return sw.toString();
+	}
+
+	/** Test for processing instructions, comments, and whitespace
+	 * outside of the document element.
+	 * @throws Exception The test failed.
+	 */
+	public void testPIsCommentsAndOutsideOfDocumentElement() throws Exception {
+		Document doc = parse("<?xml version=\"1.0\"?>\n\n"
+				+ "<?xml-stylesheet   href=\"doc.xsl\"\n   type=\"text/xsl\"   ?>\n\n"
+				+ "<doc>Hello, world!<!-- Comment 1 --></doc>\n\n"
+				+ "<?pi-without-data     ?>\n\n"
+				+ "<!-- Comment 2 -->\n\n"
+				+ "<!-- Comment 3 -->");
+		assertEquals("<?xml-stylesheet href=\"doc.xsl\"\n   type=\"text/xsl\"   ?>\n"
+				+ "<doc>Hello, world!</doc>\n"
+				+ "<?pi-without-data?>", canonicalize(new C14NXMLWriter(), doc));
+		C14NXMLWriter xw = new C14NXMLWriter();
+		xw.setWithComments(true);
+		assertEquals("<?xml-stylesheet href=\"doc.xsl\"\n   type=\"text/xsl\"   ?>\n"
+				+ "<doc>Hello, world!<!-- Comment 1 --></doc>\n"
+				+ "<?pi-without-data?>\n"
+				+ "<!-- Comment 2 -->\n"
+				+ "<!-- Comment 3 -->", canonicalize(xw, doc));
+	}
+
+	/** Test for start and end tags, attribute ordering, and
+	 * suppression of redundant namespace declarations.
+	 * @throws Exception The test failed.
+	 */
+	public void testStartAndEndTags() throws Exception {
+		Document doc = parse("<doc>\n"
+				+ "   <e1   />\n"
+				+ "   <e2   ></e2>\n"
+				+ "   <e3   name = \"elem3\"   id=\"elem3\"   />\n"
+				+ "   <e4   name=\"elem4\"   id=\"elem4\"   ></e4>\n"
+				+ "   <e5 a:attr=\"out\" b:attr=\"sorted\" attr2=\"all\" attr=\"I'm\"\n"
+				+ "      xmlns:b=\"http://www.ietf.org\"\n"
+				+ "      xmlns:a=\"http://www.w3.org\"\n"
+				+ "      xmlns=\"http://example.org\"/>\n"
+				+ "   <e6 xmlns=\"\" xmlns:a=\"http://www.w3.org\">\n"
+				+ "      <e7 xmlns=\"http://www.ietf.org\">\n"
+				+ "         <e8 xmlns=\"\" xmlns:a=\"http://www.w3.org\">\n"
+				+ "            <e9 xmlns=\"\" xmlns:a=\"http://www.ietf.org\"/>\n"
+				+ "         </e8>\n"
+				+ "      </e7>\n"
+				+ "   </e6>\n"
+				+ "</doc>");
+		assertEquals("<doc>\n"
+				+ "   <e1></e1>\n"
+				+ "   <e2></e2>\n"
+				+ "   <e3 id=\"elem3\" name=\"elem3\"></e3>\n"
+				+ "   <e4 id=\"elem4\" name=\"elem4\"></e4>\n"
+				+ "   <e5 xmlns=\"http://example.org\" xmlns:a=\"http://www.w3.org\" xmlns:b=\"http://www.ietf.org\" attr=\"I'm\" attr2=\"all\" b:attr=\"sorted\" a:attr=\"out\"></e5>\n"
+				+ "   <e6 xmlns:a=\"http://www.w3.org\">\n"
+				+ "      <e7 xmlns=\"http://www.ietf.org\">\n"
+				+ "         <e8 xmlns=\"\">\n"
+				+ "            <e9 xmlns:a=\"http://www.ietf.org\"></e9>\n"
+				+ "         </e8>\n"
+				+ "      </e7>\n"
+				+ "   </e6>\n"
+				+ "</doc>", canonicalize(new C14NXMLWriter(), doc));
+	}
+
+	/** Test for character modifications, and character references.
+	 * @throws Exception The test failed.
+	 */
+	public void testCharacters() throws Exception {
+		Document doc = parse("<doc attr=\"&#9;&#10;&#13;&quot;&lt;&gt;\u00e4\">&#13;&gt;&amp;\"<![CDATA[<&>]]></doc>");
+		assertEquals("<doc attr=\"&#x9;&#xA;&#xD;&quot;&lt;>\u00e4\">&#xD;&gt;&amp;\"&lt;&amp;&gt;</doc>",
+				canonicalize(new C14NXMLWriter(), doc));
+	}
+
+	/** Test for inclusive, and exclusive canonicalization of a subtree.
+	 * @throws Exception The test failed.
+	 */
+	public void testExclusive() throws Exception {
+		Document doc = parse("<n0:local xmlns:n0=\"foo:bar\" xmlns:n3=\"ftp://example.org\">"
+				+ "<n1:elem2 xmlns:n1=\"http://example.net\" xml:lang=\"en\">"
+				+ "<n3:stuff xmlns:n3=\"ftp://example.org\"/>"
+				+ "</n1:elem2>"
+				+ "</n0:local>");
+		Node elem2 = doc.getDocumentElement().getFirstChild();
+		assertEquals("<n1:elem2 xmlns:n0=\"foo:bar\" xmlns:n1=\"http://example.net\" xmlns:n3=\"ftp://example.org\" xml:lang=\"en\">"
+				+ "<n3:stuff></n3:stuff>"
+				+ "</n1:elem2>", canonicalize(new C14NXMLWriter(), elem2));
+		C14NXMLWriter xw = new C14NXMLWriter();
+		xw.setExclusive(true);
+		assertEquals("<n1:elem2 xmlns:n1=\"http://example.net\" xml:lang=\"en\">"
+				+ "<n3:stuff xmlns:n3=\"ftp://example.org\"></n3:stuff>"
+				+ "</n1:elem2>", canonicalize(xw, elem2));
+		xw.setInclusivePrefixes(new String[]{"n0"});
+		assertEquals("<n1:elem2 xmlns:n0=\"foo:bar\" xmlns:n1=\"http://example.net\" xml:lang=\"en\">"
+				+ "<n3:stuff xmlns:n3=\"ftp://example.org\"></n3:stuff>"
+				+ "</n1:elem2>", canonicalize(xw, elem2));
+	}
+
+	/** Test for the streaming API, where the attributes are written
+	 * after the start tag has been started.
+	 * @throws Exception The test failed.
+	 */
+	public void testStreamingAPI() throws Exception {
+		StringWriter sw = new StringWriter();
+		C14NXMLWriter xw = new C14NXMLWriter();
+		xw.setWriter(sw);
+		xw.startDocument();
+		xw.writeStartElement("e5");
+		xw.writeAttribute("a:attr", "out");
+		xw.writeAttribute("b:attr", "sorted");
+		xw.writeAttribute("attr2", "all");
+		xw.writeAttribute("attr", "I'm");
+		xw.writeAttribute("xmlns:b", "http://www.ietf.org");
+		xw.writeAttribute("xmlns:a", "http://www.w3.org");
+		xw.writeAttribute("xmlns", "http://example.org");
+		xw.writeStartElement("e6");
+		xw.writeAttribute("xmlns:a", "http://www.w3.org");
+		xw.writeAttribute("xml:lang", "en");
+		xw.writeAttribute("a:x", "1");
+		xw.writeInt(42);
+		xw.writeEndElement();
+		xw.writeEndElement();
+		xw.endDocument();
+		assertEquals("<e5 xmlns=\"http://example.org\" xmlns:a=\"http://www.w3.org\" xmlns:b=\"http://www.ietf.org\""
+				+ " attr=\"I'm\" attr2=\"all\" b:attr=\"sorted\" a:attr=\"out\">"
+				+ "<e6 a:x=\"1\" xml:lang=\"en\">42</e6></e5>", sw.toString());
+
+		try {
+			xw.writeAttribute("x", "1");
+			fail("Expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			// Ok
+		}
+	}
+
+	/** Test for pre-serialized fragments, which cannot be canonicalized.
+	 * @throws Exception The test failed.
+	 */
+	public void testFragment() throws Exception {
+		PreSerializedFragment fragment = PreSerializedFragment.newInstance(parse("<b x=\"1\"/>"));
+		StringWriter sw = new StringWriter();
+		C14NXMLWriter xw = new C14NXMLWriter();
+		xw.setWriter(sw);
+		xw.startDocument();
+		xw.writeStartElement("a");
+		try {
+			xw.writeFragment(fragment);
+			fail("Expected UnsupportedOperationException");
+		} catch (UnsupportedOperationException e) {
+			// Ok
+		}
+	}
+}
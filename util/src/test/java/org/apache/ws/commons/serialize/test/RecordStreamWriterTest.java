@@ -0,0 +1,117 @@
+/*
+ * Copyright 2003, 2004  The Apache Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ws.commons.serialize.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.TestCase;
+
+import org.apache.ws.commons.serialize.RecordStreamWriter;
+import org.apache.ws.commons.serialize.XMLWriter;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+
+/** A test case for the {@link RecordStreamWriter}.
+ */
+public class RecordStreamWriterTest extends TestCase {
+	private static final int NUM_THREADS = 8;
+	private static final int NUM_RECORDS = 500;
+
+	/** Test for writing records from multiple threads.
+	 * @throws Exception The test failed.
+	 */
+	public void testConcurrentRecords() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final RecordStreamWriter rsw = new RecordStreamWriter(baos);
+		rsw.setDeclarating(true);
+		AttributesImpl attrs = new AttributesImpl();
+		attrs.addAttribute("", "", "xmlns:a", "CDATA", "urn:audit");
+		rsw.startDocument("a:feed", attrs);
+		final Throwable[] failures = new Throwable[NUM_THREADS];
+		Thread[] threads = new Thread[NUM_THREADS];
+		for (int i = 0;  i < NUM_THREADS;  i++) {
+			final int threadNum = i;
+			threads[i] = new Thread(){
+				public void run() {
+					try {
+						for (int j = 0;  j < NUM_RECORDS;  j++) {
+							XMLWriter xw = rsw.startRecord();
+							xw.writeStartElement("a:record");
+							xw.writeAttribute("thread", String.valueOf(threadNum));
+							xw.writeAttribute("num", String.valueOf(j));
+							String text = "Record <" + j + "> \u00e4\u00f6\u00fc";
+							xw.writeCharacters(text.toCharArray(), 0, text.length());
+							xw.writeEndElement();
+							rsw.endRecord();
+						}
+					} catch (Throwable t) {
+						failures[threadNum] = t;
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0;  i < NUM_THREADS;  i++) {
+			threads[i].join();
+			assertNull(failures[i]);
+		}
+		rsw.endDocument();
+
+		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+		dbf.setNamespaceAware(true);
+		Document doc = dbf.newDocumentBuilder().parse(new ByteArrayInputStream(baos.toByteArray()));
+		NodeList records = doc.getDocumentElement().getElementsByTagNameNS("urn:audit", "record");
+		assertEquals(NUM_THREADS * NUM_RECORDS, records.getLength());
+		int[] next = new int[NUM_THREADS];
+		for (int i = 0;  i < records.getLength();  i++) {
+			Element e = (Element) records.item(i);
+			int threadNum = Integer.parseInt(e.getAttribute("thread"));
+			int num = Integer.parseInt(e.getAttribute("num"));
+			assertEquals(next[threadNum]++, num);
+			assertEquals("Record <" + num + "> \u00e4\u00f6\u00fc", e.getTextContent());
+		}
+	}
+
+	/** Test, whether an unbalanced record is rejected.
+	 * @throws Exception The test failed.
+	 */
+	public void testUnbalancedRecord() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		RecordStreamWriter rsw = new RecordStreamWriter(baos);
+		rsw.startDocument("feed", null);
+		XMLWriter xw = rsw.startRecord();
+		xw.writeStartElement("record");
+		try {
+			rsw.endRecord();
+			fail("Expected SAXException");
+		} catch (SAXException e) {
+			// Ok
+		}
+		xw = rsw.startRecord();
+		xw.writeStartElement("record");
+		xw.writeEndElement();
+		rsw.endRecord();
+		rsw.endDocument();
+		assertEquals("<feed><record/></feed>", new String(baos.toByteArray(), "UTF-8"));
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2003, 2004  The Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ws.commons.serialize.test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.TestCase;
+
+import org.apache.ws.commons.serialize.DOMSerializer;
+import org.apache.ws.commons.serialize.SAXEventBuffer;
+import org.apache.ws.commons.serialize.XMLWriter;
+import org.apache.ws.commons.serialize.XMLWriterImpl;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+
+/** A test case for the {@link SAXEventBuffer}.
+ */
+public class SAXEventBufferTest extends TestCase {
+	private static final int NUM_THREADS = 4;
+
+	private String serialize(SAXEventBuffer pBuffer) throws Exception {
+		StringWriter sw = new StringWriter();
+		XMLWriter xw = new XMLWriterImpl();
+		xw.setWriter(sw);
+		pBuffer.replay(xw);
+		return sw.toString();
+	}
+
+	private Document newDocument() throws Exception {
+		StringBuffer sb = new StringBuffer();
+		sb.append("<a xmlns=\"urn:a\" xmlns:b=\"urn:b\" x=\"1\">");
+		for (int i = 0;  i < 100;  i++) {
+			sb.append("<b:b y=\"").append(i).append("\" z=\"&lt;\">Some text &amp; &lt;more&gt; text, number ")
+				.append(i).append("</b:b><?pi data?>");
+		}
+		sb.append("</a>");
+		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+		dbf.setNamespaceAware(true);
+		return dbf.newDocumentBuilder().parse(new InputSource(new StringReader(sb.toString())));
+	}
+
+	private Throwable[] replay(final SAXEventBuffer pBuffer, final String pExpected, final int pNum)
+			throws InterruptedException {
+		final Throwable[] failures = new Throwable[NUM_THREADS];
+		Thread[] threads = new Thread[NUM_THREADS];
+		for (int i = 0;  i < NUM_THREADS;  i++) {
+			final int threadNum = i;
+			threads[i] = new Thread(){
+				public void run() {
+					try {
+						for (int j = 0;  j < pNum;  j++) {
+							assertEquals(pExpected, serialize(pBuffer));
+						}
+					} catch (Throwable t) {
+						failures[threadNum] = t;
+					}
+				}
+			};
+		}
+		for (int i = 0;  i < NUM_THREADS;  i++) {
+			threads[i].start();
+		}
+		for (int i = 0;  i < NUM_THREADS;  i++) {
+			threads[i].join();
+		}
+		return failures;
+	}
+
+	private String expect(Document pDocument) throws Exception {
+		StringWriter expect = new StringWriter();
+		XMLWriter xmlWriter = new XMLWriterImpl();
+		xmlWriter.setWriter(expect);
+		new DOMSerializer().serialize(pDocument, xmlWriter);
+		return expect.toString();
+	}
+
+	/** Test for recording a document, and replaying it multiple
+	 * times, concurrently.
+	 * @throws Exception The test failed.
+	 */
+	public void testReplay() throws Exception {
+		Document doc = newDocument();
+		final SAXEventBuffer buffer = new SAXEventBuffer();
+		new DOMSerializer().serialize(doc, buffer);
+		assertFalse(buffer.isFrozen());
+		final String expected = expect(doc);
+		assertEquals(expected, serialize(buffer));
+		assertTrue(buffer.isFrozen());
+		try {
+			buffer.startDocument();
+			fail("Expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			// Ok
+		}
+
+		Throwable[] failures = replay(buffer, expected, 50);
+		for (int i = 0;  i < NUM_THREADS;  i++) {
+			assertNull(failures[i]);
+		}
+	}
+
+	/** Test for replaying a buffer, which hasn't been frozen,
+	 * from multiple threads at once. The first replay freezes
+	 * the buffer, and the others must see the frozen state.
+	 * @throws Exception The test failed.
+	 */
+	public void testConcurrentFirstReplay() throws Exception {
+		Document doc = newDocument();
+		String expected = expect(doc);
+		for (int i = 0;  i < 20;  i++) {
+			SAXEventBuffer buffer = new SAXEventBuffer();
+			new DOMSerializer().serialize(doc, buffer);
+			assertFalse(buffer.isFrozen());
+			Throwable[] failures = replay(buffer, expected, 2);
+			for (int j = 0;  j < NUM_THREADS;  j++) {
+				assertNull(failures[j]);
+			}
+			assertTrue(buffer.isFrozen());
+		}
+	}
+}
@@ -0,0 +1,1072 @@
+/*
+ * Copyright 2003, 2004  The Apache Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ws.commons.serialize.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.TestCase;
+
+import org.apache.ws.commons.serialize.ChannelXMLWriter;
+import org.apache.ws.commons.serialize.CharSetXMLWriter;
+import org.apache.ws.commons.serialize.DOMSerializer;
+import org.apache.ws.commons.serialize.DeflaterXMLWriter;
+import org.apache.ws.commons.serialize.DigestXMLWriter;
+import org.apache.ws.commons.serialize.OrderedAttributeXMLWriter;
+import org.apache.ws.commons.serialize.PassThroughXMLWriter;
+import org.apache.ws.commons.serialize.PreSerializedFragment;
+import org.apache.ws.commons.serialize.SerializationStatistics;
+import org.apache.ws.commons.serialize.Utf8XMLWriter;
+import org.apache.ws.commons.serialize.XMLWriter;
+import org.apache.ws.commons.serialize.XMLWriterImpl;
+import org.apache.ws.commons.serialize.XMLWriterPool;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.AttributesImpl;
+
+
+/** A test case for the {@link XMLWriter} implementations.
+ */
+public class XMLWriterTest extends TestCase {
+	protected Document parse(String pXml) throws Exception {
+		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+		dbf.setNamespaceAware(true);
+		return dbf.newDocumentBuilder().parse(new InputSource(new StringReader(pXml)));
+	}
+
+	protected String serialize(XMLWriter pWriter, Document pDocument) throws Exception {
+		StringWriter sw = new StringWriter();
+		pWriter.setWriter(sw);
+		new DOMSerializer().serialize(pDocument, pWriter);
+		return sw.toString();
+	}
+
+	/** Test for writing a document, which exceeds the internal buffer.
+	 * @throws Exception The test failed.
+	 */
+	public void testBuffering() throws Exception {
+		StringBuffer sb = new StringBuffer();
+		sb.append("<a x=\"1\">");
+		for (int i = 0;  i < 100;  i++) {
+			sb.append("<b>Some text &amp; &lt;more&gt; text, number ").append(i).append("</b>");
+		}
+		sb.append("</a>");
+		String expect = sb.toString();
+		Document doc = parse(expect);
+		for (int i = 1;  i < 64;  i++) {
+			XMLWriter xw = new XMLWriterImpl();
+			xw.setBufferSize(i);
+			assertEquals(expect, serialize(xw, doc));
+		}
+		assertEquals(expect, serialize(new XMLWriterImpl(), doc));
+	}
+
+	/** Test, whether the buffer is written to the target, after the
+	 * document element has been written, even without an
+	 * <code>endDocument</code> event.
+	 * @throws Exception The test failed.
+	 */
+	public void testTopLevelFlush() throws Exception {
+		StringWriter sw = new StringWriter();
+		XMLWriter xw = new XMLWriterImpl();
+		xw.setWriter(sw);
+		xw.startElement("", "a", "a", new AttributesImpl());
+		xw.characters("foo".toCharArray(), 0, 3);
+		assertEquals("", sw.toString());
+		xw.endElement("", "a", "a");
+		assertEquals("<a>foo</a>", sw.toString());
+	}
+
+	/** Test for escaping text and attribute values.
+	 * @throws Exception The test failed.
+	 */
+	public void testEscaping() throws Exception {
+		String text = "a<b>&c\"d'e\tf\r\ng\u00e4h\u0001";
+		String attrValue = "x<y>&z\"'\t\n\u00fc";
+		AttributesImpl attrs = new AttributesImpl();
+		attrs.addAttribute("", "b", "b", "CDATA", attrValue);
+		StringWriter sw = new StringWriter();
+		XMLWriter xw = new XMLWriterImpl();
+		xw.setWriter(sw);
+		xw.startElement("", "a", "a", attrs);
+		xw.characters(text.toCharArray(), 0, text.length());
+		xw.endElement("", "a", "a");
+		assertEquals("<a b=\"x&lt;y&gt;&amp;z&quot;&apos;&#9;\n&#252;\">"
+				+ "a&lt;b&gt;&amp;c\"d'e\tf\r\ng&#228;h&#1;</a>", sw.toString());
+
+		sw = new StringWriter();
+		xw = new PassThroughXMLWriter();
+		xw.setWriter(sw);
+		xw.startElement("", "a", "a", attrs);
+		xw.characters(text.toCharArray(), 0, text.length());
+		xw.endElement("", "a", "a");
+		assertEquals("<a b=\"x&lt;y&gt;&amp;z&quot;&apos;\t\n\u00fc\">"
+				+ "a&lt;b&gt;&amp;c\"d'e\tf\r\ng\u00e4h\u0001</a>", sw.toString());
+	}
+
+	/** Test for the {@link Utf8XMLWriter}.
+	 * @throws Exception The test failed.
+	 */
+	public void testUtf8XMLWriter() throws Exception {
+		String text = "Gr\u00fc\u00dfe, \u65e5\u672c\u8a9e \ud83d\ude00 & <more> text";
+		String expect = "<a b=\"\u00e4&amp;\ud834\udd1e\">Gr\u00fc\u00dfe, \u65e5\u672c\u8a9e"
+			+ " \ud83d\ude00 &amp; &lt;more&gt; text</a>";
+		AttributesImpl attrs = new AttributesImpl();
+		attrs.addAttribute("", "b", "b", "CDATA", "\u00e4&\ud834\udd1e");
+		for (int i = 1;  i < 32;  i++) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			Utf8XMLWriter xw = new Utf8XMLWriter();
+			xw.setBufferSize(i);
+			xw.setOutputStream(baos);
+			xw.startDocument();
+			xw.startElement("", "a", "a", attrs);
+			xw.characters(text.toCharArray(), 0, text.length());
+			xw.endElement("", "a", "a");
+			xw.endDocument();
+			assertEquals(expect, new String(baos.toByteArray(), "UTF-8"));
+		}
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		Utf8XMLWriter xw = new Utf8XMLWriter();
+		xw.setOutputStream(baos);
+		xw.startDocument();
+		xw.startElement("", "a", "a", new AttributesImpl());
+		xw.characters(new char[]{'x', '\ud83d'}, 0, 2);
+		xw.characters(new char[]{'\ude00', 'y', '\udc00', 'z'}, 0, 4);
+		xw.endElement("", "a", "a");
+		xw.endDocument();
+		assertEquals("<a>x\ud83d\ude00y?z</a>", new String(baos.toByteArray(), "UTF-8"));
+	}
+
+	/** Test for the {@link ChannelXMLWriter}.
+	 * @throws Exception The test failed.
+	 */
+	public void testChannelXMLWriter() throws Exception {
+		StringBuffer sb = new StringBuffer();
+		sb.append("<a x=\"1\">");
+		for (int i = 0;  i < 100;  i++) {
+			sb.append("<b>Gr\u00fc\u00dfe &amp; &lt;more&gt; text, number ").append(i).append("</b>");
+		}
+		sb.append("</a>");
+		String expect = sb.toString();
+		Document doc = parse(expect);
+
+		for (int i = 0;  i < 3;  i++) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			ChannelXMLWriter xw = new ChannelXMLWriter();
+			xw.setBufferSize(100);
+			xw.setChannel(Channels.newChannel(baos));
+			if (i == 1) {
+				xw.setByteBuffer(ByteBuffer.allocate(250));
+			} else if (i == 2) {
+				xw.setByteBuffer(ByteBuffer.allocateDirect(250));
+			}
+			new DOMSerializer().serialize(doc, xw);
+			assertEquals(expect, new String(baos.toByteArray(), "UTF-8"));
+		}
+
+		File f = File.createTempFile("ws-commons", ".xml");
+		try {
+			RandomAccessFile raf = new RandomAccessFile(f, "rw");
+			FileChannel fc = raf.getChannel();
+			ChannelXMLWriter xw = new ChannelXMLWriter();
+			xw.setBufferSize(100);
+			xw.setChannel(fc);
+			xw.setByteBuffer(ByteBuffer.allocateDirect(250));
+			new DOMSerializer().serialize(doc, xw);
+			raf.close();
+			byte[] bytes = new byte[(int) f.length()];
+			FileInputStream fis = new FileInputStream(f);
+			for (int off = 0;  off < bytes.length;  ) {
+				off += fis.read(bytes, off, bytes.length - off);
+			}
+			fis.close();
+			assertEquals(expect, new String(bytes, "UTF-8"));
+		} finally {
+			f.delete();
+		}
+	}
+
+	/** A channel, which records the length of every write.
+	 */
+	private static class CountingChannel implements WritableByteChannel {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final List writes = new ArrayList();
+		public int write(ByteBuffer pBuffer) {
+			int len = pBuffer.remaining();
+			while (pBuffer.hasRemaining()) {
+				baos.write(pBuffer.get());
+			}
+			writes.add(new Integer(len));
+			return len;
+		}
+		public boolean isOpen() { return true; }
+		public void close() {}
+	}
+
+	/** Test, whether the output of a {@link ChannelXMLWriter} goes
+	 * through the configured byte buffer.
+	 * @throws Exception The test failed.
+	 */
+	public void testChannelXMLWriterByteBuffer() throws Exception {
+		CountingChannel channel = new CountingChannel();
+		ChannelXMLWriter xw = new ChannelXMLWriter();
+		xw.setBufferSize(16);
+		xw.setChannel(channel);
+		xw.setByteBuffer(ByteBuffer.allocateDirect(4096));
+		xw.startDocument();
+		xw.writeStartElement("a");
+		for (int i = 0;  i < 20;  i++) {
+			xw.writeStartElement("b");
+			xw.writeAttribute("x", String.valueOf(i));
+			xw.writeEndElement();
+		}
+		xw.writeEndElement();
+		assertEquals(0, channel.writes.size());
+		xw.endDocument();
+		assertEquals(1, channel.writes.size());
+		String result = new String(channel.baos.toByteArray(), "UTF-8");
+		assertTrue(result.startsWith("<a><b x=\"0\"/>"));
+		assertTrue(result.endsWith("<b x=\"19\"/></a>"));
+
+		// A small buffer is drained, whenever it is full.
+		channel = new CountingChannel();
+		xw.setChannel(channel);
+		xw.setByteBuffer(ByteBuffer.allocateDirect(64));
+		xw.startDocument();
+		xw.writeStartElement("a");
+		for (int i = 0;  i < 20;  i++) {
+			xw.writeStartElement("b");
+			xw.writeAttribute("x", String.valueOf(i));
+			xw.writeEndElement();
+		}
+		xw.writeEndElement();
+		xw.endDocument();
+		assertEquals(result, new String(channel.baos.toByteArray(), "UTF-8"));
+		for (int i = 0;  i < channel.writes.size() - 1;  i++) {
+			assertEquals(new Integer(64), channel.writes.get(i));
+		}
+	}
+
+	/** Test, whether the {@link CharSetXMLWriter} returns the same
+	 * results as {@link CharsetEncoder#canEncode(char)}.
+	 * @throws Exception The test failed.
+	 */
+	public void testCharSetXMLWriterCanEncode() throws Exception {
+		String[] encodings = new String[]{"UTF-8", "UTF-16", "US-ASCII", "ISO-8859-1", "ISO-8859-15", "Shift_JIS"};
+		for (int i = 0;  i < encodings.length;  i++) {
+			CharsetEncoder encoder = Charset.forName(encodings[i]).newEncoder();
+			CharSetXMLWriter xw = new CharSetXMLWriter();
+			xw.setEncoding(encodings[i]);
+			xw.setWriter(new StringWriter());
+			xw.startDocument();
+			for (int c = 0;  c < 0x10000;  c++) {
+				assertEquals(encodings[i] + ", " + c, encoder.canEncode((char) c), xw.canEncode((char) c));
+			}
+		}
+	}
+
+	private String serialize(CharSetXMLWriter pWriter, String pText) throws Exception {
+		StringWriter sw = new StringWriter();
+		pWriter.setWriter(sw);
+		pWriter.startDocument();
+		pWriter.writeStartElement("a");
+		pWriter.writeAttribute("b", pText);
+		pWriter.writeCharacters(pText);
+		pWriter.writeEndElement();
+		pWriter.endDocument();
+		return sw.toString();
+	}
+
+	private void assertCanEncode(String pEncoding, CharSetXMLWriter pWriter) {
+		CharsetEncoder encoder = Charset.forName(pEncoding).newEncoder();
+		for (int c = 0;  c < 0x10000;  c++) {
+			assertEquals(pEncoding + ", " + c, encoder.canEncode((char) c), pWriter.canEncode((char) c));
+		}
+	}
+
+	/** Test for the cache of resolved encodings in the
+	 * {@link CharSetXMLWriter}: Writers, which share the cache, must
+	 * behave like independent writers, and changing the encoding
+	 * must take effect with the next document.
+	 * @throws Exception The test failed.
+	 */
+	public void testCharSetXMLWriterCache() throws Exception {
+		String text = "a\u00e4\u0105\u20ac\u65e5";
+		CharSetXMLWriter xw1 = new CharSetXMLWriter();
+		xw1.setEncoding("ISO-8859-2");
+		String latin2 = serialize(xw1, text);
+		assertEquals("<a b=\"a\u00e4\u0105&#8364;&#26085;\">a\u00e4\u0105&#8364;&#26085;</a>", latin2);
+		assertCanEncode("ISO-8859-2", xw1);
+
+		// Writers with the same encoding, even if given by another
+		// instance of String, or by an alias, produce the same output.
+		CharSetXMLWriter xw2 = new CharSetXMLWriter();
+		xw2.setEncoding(new String("ISO-8859-2"));
+		assertEquals(latin2, serialize(xw2, text));
+		CharSetXMLWriter xw3 = new CharSetXMLWriter();
+		xw3.setEncoding("latin2");
+		assertEquals(latin2, serialize(xw3, text));
+		assertCanEncode("ISO-8859-2", xw3);
+
+		// An unchanged encoding yields the same output again.
+		assertEquals(latin2, serialize(xw1, text));
+
+		// Changing the encoding takes effect with the next document,
+		// but doesn't affect the other writers.
+		xw1.setEncoding("US-ASCII");
+		assertEquals("<a b=\"a&#228;&#261;&#8364;&#26085;\">a&#228;&#261;&#8364;&#26085;</a>",
+				serialize(xw1, text));
+		assertCanEncode("US-ASCII", xw1);
+		assertEquals(latin2, serialize(xw2, text));
+		assertCanEncode("ISO-8859-2", xw2);
+
+		xw1.setEncoding("ISO-8859-2");
+		assertEquals(latin2, serialize(xw1, text));
+	}
+
+	/** Test for numeric character references.
+	 * @throws Exception The test failed.
+	 */
+	public void testCharacterReferences() throws Exception {
+		String text = "\u00e4\u65e5\u0009\u0001\ud83d\ude00x\ud83dy\ude00";
+		for (int i = 0;  i < 2;  i++) {
+			StringWriter sw = new StringWriter();
+			XMLWriter xw = new XMLWriterImpl();
+			xw.setHexCharacterReferences(i == 1);
+			xw.setWriter(sw);
+			xw.startElement("", "a", "a", new AttributesImpl());
+			xw.characters(text.toCharArray(), 0, text.length());
+			xw.endElement("", "a", "a");
+			if (i == 0) {
+				assertEquals("<a>&#228;&#26085;\t&#1;&#128512;x?y?</a>", sw.toString());
+			} else {
+				assertEquals("<a>&#xe4;&#x65e5;\t&#x1;&#x1f600;x?y?</a>", sw.toString());
+			}
+		}
+
+		// A surrogate pair, which crosses the boundary of the internal chunks.
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0;  i < 511;  i++) {
+			sb.append('v');
+		}
+		String value = sb.toString();
+		StringWriter sw = new StringWriter();
+		XMLWriterImpl xw = new XMLWriterImpl();
+		xw.setWriter(sw);
+		xw.writeStartElement("a");
+		xw.writeAttribute("b", value + "\ud83d\ude00");
+		xw.writeEndElement();
+		assertEquals("<a b=\"" + value + "&#128512;\"/>", sw.toString());
+
+		// Unpaired surrogates in a CDATA section
+		sw = new StringWriter();
+		xw.setWriter(sw);
+		xw.writeStartElement("a");
+		xw.startCDATA();
+		char[] chars = "x\ud83dy\ude00\ud83d\ude00".toCharArray();
+		xw.characters(chars, 0, chars.length);
+		xw.endCDATA();
+		xw.writeEndElement();
+		assertEquals("<a><![CDATA[x?y?]]>&#128512;<![CDATA[]]></a>", sw.toString());
+	}
+
+	/** Test for indentation.
+	 * @throws Exception The test failed.
+	 */
+	public void testIndenting() throws Exception {
+		StringBuffer input = new StringBuffer();
+		StringBuffer expect = new StringBuffer();
+		final int depth = 40;
+		for (int i = 0;  i < depth;  i++) {
+			input.append("<e").append(i).append('>');
+			if (i > 0) {
+				expect.append("\r\n");
+				for (int j = 0;  j < i;  j++) {
+					expect.append("\t");
+				}
+			}
+			expect.append("<e").append(i).append('>');
+		}
+		input.append("<x/>");
+		expect.append("\r\n");
+		for (int j = 0;  j < depth;  j++) {
+			expect.append("\t");
+		}
+		expect.append("<x/>");
+		for (int i = depth-1;  i >= 0;  i--) {
+			input.append("</e").append(i).append('>');
+			expect.append("\r\n");
+			for (int j = 0;  j < i;  j++) {
+				expect.append("\t");
+			}
+			expect.append("</e").append(i).append('>');
+		}
+		XMLWriter xw = new XMLWriterImpl();
+		xw.setIndenting(true);
+		xw.setIndentString("\t");
+		xw.setLineFeed("\r\n");
+		assertEquals(expect.toString(), serialize(xw, parse(input.toString())));
+	}
+
+	/** Test for namespace declarations.
+	 * @throws Exception The test failed.
+	 */
+	public void testNamespaceDeclarations() throws Exception {
+		StringWriter sw = new StringWriter();
+		XMLWriter xw = new XMLWriterImpl();
+		xw.setWriter(sw);
+		xw.startDocument();
+		xw.startPrefixMapping("", "");
+		xw.startPrefixMapping("z", "urn:z");
+		xw.startPrefixMapping("a", "urn:a");
+		xw.startPrefixMapping("", "urn:default");
+		xw.startPrefixMapping("m", "urn:m");
+		xw.startPrefixMapping("x", "urn:x");
+		xw.endPrefixMapping("x");
+		AttributesImpl attrs = new AttributesImpl();
+		attrs.addAttribute("http://www.w3.org/2000/xmlns/", "m", "xmlns:m", "CDATA", "urn:m");
+		xw.startElement("urn:default", "e", "e", attrs);
+		xw.startPrefixMapping("b", "urn:b");
+		xw.startElement("urn:b", "f", "b:f", new AttributesImpl());
+		xw.endElement("urn:b", "f", "b:f");
+		xw.endPrefixMapping("b");
+		xw.endElement("urn:default", "e", "e");
+		xw.endDocument();
+		assertEquals("<e xmlns:m=\"urn:m\" xmlns:z=\"urn:z\" xmlns:a=\"urn:a\" xmlns=\"urn:default\">"
+				+ "<b:f xmlns:b=\"urn:b\"/></e>", sw.toString());
+	}
+
+	/** Test for the streaming API, which doesn't require
+	 * {@link org.xml.sax.Attributes}.
+	 * @throws Exception The test failed.
+	 */
+	public void testStreamingAPI() throws Exception {
+		StringWriter sw = new StringWriter();
+		XMLWriter xw = new XMLWriterImpl();
+		xw.setWriter(sw);
+		xw.startDocument();
+		xw.startPrefixMapping("p", "urn:p");
+		xw.writeStartElement("p:a");
+		xw.writeAttribute("x", "1<2");
+		xw.writeAttribute("y", "\"");
+		xw.writeStartElement("b");
+		xw.writeCharacters("a&b".toCharArray(), 0, 3);
+		xw.writeEndElement();
+		xw.writeStartElement("c");
+		xw.writeEndElement();
+		try {
+			xw.writeAttribute("z", "");
+			fail("Expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			// Ok
+		}
+		xw.writeEndElement();
+		xw.endDocument();
+		assertEquals("<p:a xmlns:p=\"urn:p\" x=\"1&lt;2\" y=\"&quot;\"><b>a&amp;b</b><c/></p:a>",
+				sw.toString());
+
+		// Namespace declarations, which have been announced, and are
+		// written as attributes, too, must not be repeated.
+		sw = new StringWriter();
+		xw.setWriter(sw);
+		xw.startDocument();
+		xw.startPrefixMapping("p", "urn:p");
+		xw.startPrefixMapping("", "urn:d");
+		xw.writeStartElement("p:a");
+		xw.writeAttribute("xmlns:p", "urn:p");
+		xw.writeAttribute("xmlns", "urn:d");
+		xw.writeAttribute("xmlns:q", "urn:q");
+		try {
+			xw.writeAttribute("xmlns:p", "urn:other");
+			fail("Expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			// Ok
+		}
+		xw.writeStartElement("b");
+		xw.writeAttribute("xmlns:p", "urn:p");
+		xw.writeEndElement();
+		xw.writeEndElement();
+		xw.endDocument();
+		assertEquals("<p:a xmlns:p=\"urn:p\" xmlns=\"urn:d\" xmlns:q=\"urn:q\"><b xmlns:p=\"urn:p\"/></p:a>",
+				sw.toString());
+	}
+
+	/** Test for a document with more element and attribute names
+	 * than the writers name cache can hold.
+	 * @throws Exception The test failed.
+	 */
+	public void testManyNames() throws Exception {
+		StringBuffer sb = new StringBuffer();
+		sb.append("<r\u00e4>");
+		for (int i = 0;  i < 3000;  i++) {
+			sb.append("<e").append(i % 1500).append(" a").append(i % 700).append("=\"v\">");
+			sb.append("<\u00fc").append(i % 10).append("/>");
+			sb.append("</e").append(i % 1500).append('>');
+		}
+		sb.append("</r\u00e4>");
+		String expect = sb.toString();
+		Document doc = parse(expect);
+		assertEquals(expect, serialize(new PassThroughXMLWriter(), doc));
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		Utf8XMLWriter xw = new Utf8XMLWriter();
+		xw.setOutputStream(baos);
+		new DOMSerializer().serialize(doc, xw);
+		assertEquals(expect, new String(baos.toByteArray(), "UTF-8"));
+	}
+
+	/** Test for writing a pre-serialized fragment.
+	 * @throws Exception The test failed.
+	 */
+	public void testPreSerializedFragment() throws Exception {
+		Document doc = parse("<x xmlns:p=\"urn:p\"><p:policy a=\"1\">Gr\u00fc\u00dfe &amp; more<p:b/></p:policy></x>");
+		PreSerializedFragment fragment = PreSerializedFragment.newInstance(doc.getDocumentElement().getFirstChild());
+		assertEquals("<p:policy a=\"1\" xmlns:p=\"urn:p\">Gr&#252;&#223;e &amp; more<p:b/></p:policy>",
+				fragment.toString());
+		assertEquals(1, fragment.getNamespaceCount());
+		assertEquals("p", fragment.getPrefix(0));
+		assertEquals("urn:p", fragment.getNamespaceURI(0));
+
+		String expect = "<r>\n  <a>\n    <p:policy a=\"1\" xmlns:p=\"urn:p\" xmlns:q=\"urn:q\">"
+			+ "Gr&#252;&#223;e &amp; more<p:b/></p:policy>\n  </a>\n</r>";
+		StringWriter sw = new StringWriter();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		Utf8XMLWriter uw = new Utf8XMLWriter();
+		uw.setOutputStream(baos);
+		XMLWriter[] writers = new XMLWriter[]{new XMLWriterImpl(), uw};
+		writers[0].setWriter(sw);
+		for (int i = 0;  i < writers.length;  i++) {
+			XMLWriter xw = writers[i];
+			xw.setIndenting(true);
+			xw.setIndentString("  ");
+			xw.setLineFeed("\n");
+			xw.startDocument();
+			xw.writeStartElement("r");
+			xw.writeStartElement("a");
+			xw.startPrefixMapping("q", "urn:q");
+			xw.startPrefixMapping("p", "urn:p");
+			xw.writeFragment(fragment);
+			xw.writeEndElement();
+			xw.writeEndElement();
+			xw.endDocument();
+		}
+		assertEquals(expect, sw.toString());
+		assertEquals(expect, new String(baos.toByteArray(), "UTF-8"));
+	}
+
+	/** Test for CDATA sections and comments.
+	 * @throws Exception The test failed.
+	 */
+	public void testLexicalHandler() throws Exception {
+		Document doc = parse("<a><![CDATA[x<y&]]]]><![CDATA[>z]]><!-- c --><b>&lt;</b></a>");
+		assertEquals("<a><![CDATA[x<y&]]]]><![CDATA[>z]]><!-- c --><b>&lt;</b></a>",
+				serialize(new XMLWriterImpl(), doc));
+
+		StringWriter sw = new StringWriter();
+		XMLWriterImpl xw = new XMLWriterImpl();
+		xw.setWriter(sw);
+		xw.startDocument();
+		xw.writeStartElement("a");
+		xw.startCDATA();
+		char[] chars = "]]>\u00e4]".toCharArray();
+		for (int i = 0;  i < chars.length;  i++) {
+			xw.characters(chars, i, 1);
+		}
+		xw.characters(chars, 0, 3);
+		xw.endCDATA();
+		xw.writeEndElement();
+		xw.endDocument();
+		assertEquals("<a><![CDATA[]]]]><![CDATA[>]]>&#228;<![CDATA[]]]]]><![CDATA[>]]></a>", sw.toString());
+	}
+
+	/** Test for digesting a part of the output.
+	 * @throws Exception The test failed.
+	 */
+	public void testDigestXMLWriter() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DigestXMLWriter xw = new DigestXMLWriter();
+		xw.setOutputStream(baos);
+		xw.setIndenting(true);
+		xw.setIndentString("  ");
+		xw.setLineFeed("\n");
+		MessageDigest sha = MessageDigest.getInstance("SHA-1");
+		MessageDigest md5 = MessageDigest.getInstance("MD5");
+		xw.setMessageDigests(new MessageDigest[]{sha, md5});
+		xw.startDocument();
+		xw.writeStartElement("a");
+		xw.startDigest();
+		assertFalse(xw.isDigesting());
+		xw.writeStartElement("b");
+		assertTrue(xw.isDigesting());
+		xw.writeAttribute("x", "1");
+		String text = "Gr\u00fc\u00dfe";
+		xw.writeCharacters(text.toCharArray(), 0, text.length());
+		xw.writeEndElement();
+		xw.endDigest();
+		assertFalse(xw.isDigesting());
+		xw.writeStartElement("c");
+		xw.writeEndElement();
+		xw.writeEndElement();
+		xw.endDocument();
+		assertEquals("<a>\n  <b x=\"1\">" + text + "</b>\n  <c/>\n</a>", new String(baos.toByteArray(), "UTF-8"));
+		byte[] signed = ("<b x=\"1\">" + text + "</b>").getBytes("UTF-8");
+		assertTrue(MessageDigest.isEqual(MessageDigest.getInstance("SHA-1").digest(signed), sha.digest()));
+		assertTrue(MessageDigest.isEqual(MessageDigest.getInstance("MD5").digest(signed), md5.digest()));
+	}
+
+	/** Test for sorting attributes.
+	 * @throws Exception The test failed.
+	 */
+	public void testOrderedAttributes() throws Exception {
+		for (int n = 1;  n < 50;  n += 7) {
+			StringBuffer input = new StringBuffer("<a xmlns:p=\"urn:p\"");
+			for (int i = n;  i-- > 0;  ) {
+				input.append(" p:x").append((char) ('A' + i % 26)).append(i).append("=\"").append(i).append('"');
+				input.append(" x").append((char) ('A' + i % 26)).append(i).append("=\"").append(i).append('"');
+			}
+			input.append("/>");
+			String[] names = new String[n];
+			for (int i = 0;  i < n;  i++) {
+				names[i] = "x" + (char) ('A' + i % 26) + i;
+			}
+			Arrays.sort(names);
+			StringBuffer expect = new StringBuffer("<a");
+			for (int i = 0;  i < n;  i++) {
+				expect.append(' ').append(names[i]).append("=\"").append(names[i].substring(2)).append('"');
+			}
+			for (int i = 0;  i < n;  i++) {
+				expect.append(" p:").append(names[i]).append("=\"").append(names[i].substring(2)).append('"');
+			}
+			expect.append(" xmlns:p=\"urn:p\"/>");
+			assertEquals(expect.toString(), serialize(new OrderedAttributeXMLWriter(), parse(input.toString())));
+		}
+	}
+
+	private String readFully(InputStream pStream) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		for (;;) {
+			int res = pStream.read(buffer);
+			if (res == -1) {
+				break;
+			}
+			baos.write(buffer, 0, res);
+		}
+		return new String(baos.toByteArray(), "UTF-8");
+	}
+
+	/** Test for the {@link DeflaterXMLWriter}.
+	 * @throws Exception The test failed.
+	 */
+	public void testDeflaterXMLWriter() throws Exception {
+		StringBuffer sb = new StringBuffer("<a>");
+		for (int i = 0;  i < 1000;  i++) {
+			sb.append("<b x=\"").append(i).append("\">Gr\u00fc\u00dfe</b>");
+		}
+		sb.append("</a>");
+		String xml = sb.toString();
+		Document doc = parse(xml);
+
+		DeflaterXMLWriter xw = new DeflaterXMLWriter();
+		xw.setBufferSize(256);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		xw.setOutputStream(baos);
+		xw.startDocument();
+		new DOMSerializer().serialize(doc, xw);
+		xw.endDocument();
+		assertTrue(baos.size() < xml.length() / 4);
+		assertEquals(xml, readFully(new GZIPInputStream(new ByteArrayInputStream(baos.toByteArray()))));
+
+		// Reuse the writer with a different format, and level.
+		xw.setFormat(DeflaterXMLWriter.FORMAT_DEFLATE);
+		xw.setLevel(Deflater.BEST_SPEED);
+		baos.reset();
+		xw.startDocument();
+		new DOMSerializer().serialize(doc, xw);
+		xw.endDocument();
+		assertEquals(xml, readFully(new InflaterInputStream(new ByteArrayInputStream(baos.toByteArray()))));
+
+		// With SYNC_FLUSH, the receiver may decompress all data, which has been flushed.
+		xw.setFlushMode(Deflater.SYNC_FLUSH);
+		baos.reset();
+		xw.startDocument();
+		xw.writeStartElement("a");
+		String text = "Gr\u00fc\u00dfe";
+		xw.writeCharacters(text.toCharArray(), 0, text.length());
+		xw.flush();
+		Inflater inflater = new Inflater();
+		inflater.setInput(baos.toByteArray());
+		byte[] buffer = new byte[1024];
+		int len = inflater.inflate(buffer);
+		assertEquals("<a>" + text, new String(buffer, 0, len, "UTF-8"));
+		xw.writeEndElement();
+		xw.endDocument();
+		xw.close();
+		assertEquals("<a>" + text + "</a>", readFully(new InflaterInputStream(new ByteArrayInputStream(baos.toByteArray()))));
+	}
+
+	/** Test for reusing a writer after {@link XMLWriter#reset()}.
+	 * @throws Exception The test failed.
+	 */
+	public void testReset() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		Utf8XMLWriter xw = new Utf8XMLWriter();
+		xw.setIndenting(true);
+		xw.setIndentString("  ");
+		xw.setLineFeed("\n");
+		xw.setOutputStream(baos);
+		xw.startDocument();
+		xw.writeStartElement("a");
+		xw.writeStartElement("b");
+		xw.startPrefixMapping("p", "urn:p");
+		xw.writeStartElement("c");
+		xw.writeAttribute("x", "1");
+		String text = "Gr\u00fc\u00dfe";
+		xw.writeCharacters(text.toCharArray(), 0, text.length());
+		xw.startPrefixMapping("q", "urn:q");
+		xw.reset();
+		assertNull(xw.getOutputStream());
+		assertEquals(0, baos.size());
+
+		xw.setOutputStream(baos);
+		xw.startDocument();
+		xw.writeStartElement("d");
+		xw.writeStartElement("e");
+		xw.writeEndElement();
+		xw.writeEndElement();
+		xw.endDocument();
+		assertEquals("<d>\n  <e/>\n</d>", new String(baos.toByteArray(), "UTF-8"));
+	}
+
+	/** Test for the {@link XMLWriterPool}.
+	 * @throws Exception The test failed.
+	 */
+	public void testXMLWriterPool() throws Exception {
+		final int[] created = new int[1];
+		XMLWriterPool pool = new XMLWriterPool(3){
+			protected XMLWriter newXMLWriter() {
+				created[0]++;
+				XMLWriter xw = new XMLWriterImpl();
+				xw.setDeclarating(true);
+				return xw;
+			}
+		};
+		XMLWriter[] writers = new XMLWriter[5];
+		for (int i = 0;  i < writers.length;  i++) {
+			writers[i] = pool.getXMLWriter();
+			StringWriter sw = new StringWriter();
+			writers[i].setWriter(sw);
+			writers[i].startDocument();
+			writers[i].writeStartElement("a");
+		}
+		assertEquals(5, created[0]);
+		for (int i = 0;  i < writers.length;  i++) {
+			pool.release(writers[i]);
+		}
+		for (int i = 0;  i < 3;  i++) {
+			XMLWriter xw = pool.getXMLWriter();
+			assertNull(xw.getWriter());
+			StringWriter sw = new StringWriter();
+			xw.setWriter(sw);
+			xw.startDocument();
+			xw.writeStartElement("b");
+			xw.writeEndElement();
+			xw.endDocument();
+			assertEquals("<?xml version=\"1.0\"?><b/>", sw.toString());
+		}
+		assertEquals(5, created[0]);
+		pool.getXMLWriter();
+		assertEquals(6, created[0]);
+	}
+
+	/** Test for the {@link SerializationStatistics}.
+	 * @throws Exception The test failed.
+	 */
+	public void testSerializationStatistics() throws Exception {
+		Document doc = parse("<a x=\"1&amp;\"><b>T&lt;\u00e4</b></a>");
+		SerializationStatistics stats = new SerializationStatistics();
+		XMLWriterImpl xw = new XMLWriterImpl();
+		StringWriter sw = new StringWriter();
+		xw.setWriter(sw);
+		xw.setListener(stats);
+		DOMSerializer ds = new DOMSerializer();
+		ds.setListener(stats);
+		ds.serialize(doc, xw);
+		xw.flush();
+		assertEquals("<a x=\"1&amp;\"><b>T&lt;&#228;</b></a>", sw.toString());
+		assertEquals(1, stats.getDocuments());
+		assertEquals(2, stats.getElements());
+		assertEquals(1, stats.getAttributes());
+		assertEquals(5, stats.getCharacters());
+		assertEquals(2, stats.getEscapedCharacters());
+		assertEquals(1, stats.getCharacterReferences());
+		assertEquals(sw.toString().length(), stats.getBytesWritten());
+		assertEquals(1, stats.getWrites());
+		assertEquals(1, stats.getFlushes());
+		assertEquals(1, stats.getSerializedNodes());
+		assertTrue(stats.getSerializationNanos() >= stats.getWriteNanos());
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("org.apache.ws.commons:type=SerializationStatistics,name=test");
+		server.registerMBean(stats, name);
+		try {
+			assertEquals(new Long(2), server.getAttribute(name, "Elements"));
+			server.invoke(name, "reset", new Object[0], new String[0]);
+			assertEquals(0, stats.getElements());
+		} finally {
+			server.unregisterMBean(name);
+		}
+
+		// Channel output must be counted exactly once, whether it passes
+		// the byte buffer, or is written to the channel directly.
+		StringBuffer sb = new StringBuffer("<a>");
+		for (int i = 0;  i < 100;  i++) {
+			sb.append("<b x=\"").append(i).append("\">T&lt;\u00e4</b>");
+		}
+		sb.append("</a>");
+		Document bigDoc = parse(sb.toString());
+		for (int i = 0;  i < 3;  i++) {
+			CountingChannel channel = new CountingChannel();
+			ChannelXMLWriter cw = new ChannelXMLWriter();
+			cw.setBufferSize(16);
+			cw.setChannel(channel);
+			if (i == 1) {
+				cw.setByteBuffer(ByteBuffer.allocateDirect(4096));
+			} else if (i == 2) {
+				cw.setByteBuffer(ByteBuffer.allocate(64));
+			}
+			stats.reset();
+			cw.setListener(stats);
+			ds.serialize(bigDoc, cw);
+			assertTrue(channel.baos.size() > 0);
+			assertEquals(channel.baos.size(), stats.getBytesWritten());
+			assertEquals(channel.writes.size(), stats.getWrites());
+			assertEquals(100 + 1, stats.getElements());
+		}
+	}
+
+	/** A writer, which records its contents, whenever it is flushed.
+	 */
+	private static class FlushRecordingWriter extends StringWriter {
+		final List flushes = new ArrayList();
+		public void flush() {
+			super.flush();
+			flushes.add(toString());
+		}
+	}
+
+	/** Test for the flush depth, threshold, and delay.
+	 * @throws Exception The test failed.
+	 */
+	public void testFlushPolicy() throws Exception {
+		XMLWriterImpl xw = new XMLWriterImpl();
+		FlushRecordingWriter fw = new FlushRecordingWriter();
+		xw.setWriter(fw);
+		xw.setFlushDepth(2);
+		xw.startDocument();
+		xw.writeStartElement("a");
+		for (int i = 0;  i < 2;  i++) {
+			xw.writeStartElement("r");
+			xw.writeStartElement("s");
+			xw.writeEndElement();
+			assertEquals(i, fw.flushes.size());
+			xw.writeEndElement();
+		}
+		xw.writeEndElement();
+		xw.endDocument();
+		assertEquals(Arrays.asList(new String[]{
+			"<a><r><s/></r>", "<a><r><s/></r><r><s/></r>", "<a><r><s/></r><r><s/></r></a>"
+		}), fw.flushes);
+
+		xw = new XMLWriterImpl();
+		fw = new FlushRecordingWriter();
+		xw.setWriter(fw);
+		xw.setFlushThreshold(20);
+		xw.startDocument();
+		xw.writeStartElement("a");
+		for (int i = 0;  i < 6;  i++) {
+			xw.writeStartElement("r");
+			xw.writeEndElement();
+		}
+		assertEquals(Arrays.asList(new String[]{"<a><r/><r/><r/><r/><r/>"}), fw.flushes);
+
+		xw = new XMLWriterImpl();
+		fw = new FlushRecordingWriter();
+		xw.setWriter(fw);
+		xw.setMaxFlushDelay(1);
+		xw.startDocument();
+		xw.writeStartElement("a");
+		xw.writeStartElement("r");
+		xw.writeEndElement();
+		assertEquals(0, fw.flushes.size());
+		Thread.sleep(20);
+		xw.writeStartElement("r");
+		xw.writeEndElement();
+		assertEquals(Arrays.asList(new String[]{"<a><r/><r/>"}), fw.flushes);
+	}
+
+	private String writeTyped(double pValue) throws Exception {
+		XMLWriterImpl xw = new XMLWriterImpl();
+		StringWriter sw = new StringWriter();
+		xw.setWriter(sw);
+		xw.writeDouble(pValue);
+		xw.flush();
+		return sw.toString();
+	}
+
+	/** Test for the typed value writers.
+	 * @throws Exception The test failed.
+	 */
+	public void testTypedValues() throws Exception {
+		XMLWriterImpl xw = new XMLWriterImpl();
+		StringWriter sw = new StringWriter();
+		xw.setWriter(sw);
+		xw.startDocument();
+		xw.writeStartElement("a");
+		xw.writeInt(0);
+		xw.writeCharacters(new char[]{' '}, 0, 1);
+		xw.writeInt(Integer.MIN_VALUE);
+		xw.writeCharacters(new char[]{' '}, 0, 1);
+		xw.writeLong(Long.MAX_VALUE);
+		xw.writeCharacters(new char[]{' '}, 0, 1);
+		xw.writeLong(Long.MIN_VALUE);
+		xw.writeCharacters(new char[]{' '}, 0, 1);
+		xw.writeBoolean(true);
+		xw.writeStartElement("b");
+		xw.writeDateTime(0, 0);
+		xw.writeEndElement();
+		xw.writeStartElement("b");
+		xw.writeDateTime(951782400123L, -90);
+		xw.writeEndElement();
+		xw.writeStartElement("b");
+		xw.writeDateTime(-62135596800000L + 1000, 120);
+		xw.writeEndElement();
+		xw.writeEndElement();
+		xw.endDocument();
+		assertEquals("<a>0 -2147483648 9223372036854775807 -9223372036854775808 true"
+				+ "<b>1970-01-01T00:00:00Z</b>"
+				+ "<b>2000-02-28T22:30:00.123-01:30</b>"
+				+ "<b>0001-01-01T02:00:01+02:00</b></a>", sw.toString());
+
+		assertEquals("0.0", writeTyped(0.0));
+		assertEquals("-0.0", writeTyped(-0.0));
+		assertEquals("NaN", writeTyped(Double.NaN));
+		assertEquals("INF", writeTyped(Double.POSITIVE_INFINITY));
+		assertEquals("-INF", writeTyped(Double.NEGATIVE_INFINITY));
+		assertEquals("0.1", writeTyped(0.1));
+		assertEquals("-123.456", writeTyped(-123.456));
+		assertEquals("100.0", writeTyped(100));
+		assertEquals("0.001", writeTyped(0.001));
+		assertEquals("1.0E7", writeTyped(1e7));
+		assertEquals("1.0E-4", writeTyped(1e-4));
+		Random random = new Random(0);
+		for (int i = 0;  i < 10000;  i++) {
+			double d = i % 2 == 0 ? Double.longBitsToDouble(random.nextLong())
+					: random.nextInt(100000000) / 1000.0;
+			if (Double.isNaN(d)  ||  Double.isInfinite(d)) {
+				continue;
+			}
+			String s = writeTyped(d);
+			assertEquals(s, d, Double.parseDouble(s), 0.0);
+			assertTrue(s, s.length() <= Double.toString(d).length());
+		}
+	}
+
+	/** Test for writing element content from a {@link Reader}, or a
+	 * {@link CharSequence}.
+	 * @throws Exception The test failed.
+	 */
+	public void testStreamingCharacters() throws Exception {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0;  i < 5000;  i++) {
+			sb.append(i % 7 == 0 ? "a&\ud83d\ude00" : "b<\u00e4");
+		}
+		final String text = sb.toString();
+		StringWriter expected = new StringWriter();
+		XMLWriterImpl xw = new XMLWriterImpl();
+		xw.setWriter(expected);
+		xw.writeStartElement("a");
+		xw.writeCharacters(text.toCharArray(), 0, text.length());
+		xw.writeEndElement();
+		assertTrue(expected.toString().indexOf("&#128512;") != -1);
+
+		// A reader, which returns short reads of varying length.
+		Reader reader = new Reader(){
+			int pos, num;
+			public int read(char[] pBuffer, int pOffset, int pLen) {
+				if (pos == text.length()) {
+					return -1;
+				}
+				int len = Math.min(Math.min(pLen, ++num % 13 + 1), text.length() - pos);
+				text.getChars(pos, pos + len, pBuffer, pOffset);
+				pos += len;
+				return len;
+			}
+			public void close() {
+			}
+		};
+		StringWriter sw = new StringWriter();
+		xw.setWriter(sw);
+		xw.writeStartElement("a");
+		xw.writeCharacters(reader);
+		xw.writeEndElement();
+		assertEquals(expected.toString(), sw.toString());
+
+		sw = new StringWriter();
+		xw.setWriter(sw);
+		xw.writeStartElement("a");
+		xw.writeCharacters(new StringBuffer(text));
+		xw.writeEndElement();
+		assertEquals(expected.toString(), sw.toString());
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		Utf8XMLWriter uw = new Utf8XMLWriter();
+		uw.setOutputStream(baos);
+		uw.writeStartElement("a");
+		uw.writeCharacters(text);
+		uw.writeEndElement();
+		uw.flush();
+		assertEquals("<a>" + text.replaceAll("&", "&amp;").replaceAll("<", "&lt;") + "</a>",
+				new String(baos.toByteArray(), "UTF-8"));
+	}
+}
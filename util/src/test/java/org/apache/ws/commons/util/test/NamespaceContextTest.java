@@ -553,6 +553,26 @@ public class NamespaceContextTest extends TestCase {
         assertEquals(ns1Prefix, prefixes.get(1));
     }
 
+    public void testPushPopScopeEmptyNested() {
+        final NamespaceContextImpl namespaceContext = new NamespaceContextImpl();
+
+        namespaceContext.pushScope();
+
+        final String ns1Prefix = "pfx1";
+        final String ns1Uri = "ns1";
+        namespaceContext.startPrefixMapping(ns1Prefix, ns1Uri);
+
+        namespaceContext.pushScope();
+        List prefixes = namespaceContext.popScope();
+        assertTrue(prefixes.isEmpty());
+        assertEquals(ns1Uri, namespaceContext.getNamespaceURI(ns1Prefix));
+
+        prefixes = namespaceContext.popScope();
+        assertEquals(1, prefixes.size());
+        assertEquals(ns1Prefix, prefixes.get(0));
+        assertFalse(namespaceContext.isPrefixDeclared(ns1Prefix));
+    }
+
     public void testCompactLinearFirst() {
         final int compactThreshold = 10;
         final NamespaceContextImpl namespaceContext = new NamespaceContextImpl(compactThreshold);